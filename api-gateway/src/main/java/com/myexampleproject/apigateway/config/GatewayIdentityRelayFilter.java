@@ -0,0 +1,98 @@
+package com.myexampleproject.apigateway.config;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.core.Ordered;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chế độ trusted-gateway: gắn header X-Gateway-Identity (claims của JWT đã verify, ký HMAC-SHA256)
+ * để các service kiểm tra bằng HMAC thay vì verify RSA lại (GatewayIdentityVerifier ở common-dto).
+ * Định dạng: base64url(JSON claims) + "." + base64url(HMAC-SHA256(secret, phần claims)).
+ * Header client tự gửi lên luôn bị xóa.
+ */
+@Component
+public class GatewayIdentityRelayFilter implements GlobalFilter, Ordered {
+
+    static final String HEADER = "X-Gateway-Identity";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    // Chỉ chuyển các claim service dùng tới, giữ header nhỏ
+    private static final List<String> RELAYED_CLAIMS = List.of(
+            "sub", "iss", "preferred_username", "email", "name", "realm_access", "resource_access", "scope");
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final SecretKeySpec key;
+
+    public GatewayIdentityRelayFilter(ObjectMapper objectMapper,
+                                      @Value("${security.trusted-gateway.enabled:false}") boolean enabled,
+                                      @Value("${security.trusted-gateway.secret:}") String secret) {
+        if (enabled && secret.length() < 32) {
+            throw new IllegalStateException("security.trusted-gateway.secret phải có ít nhất 32 ký tự");
+        }
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.key = enabled ? new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM) : null;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        ServerWebExchange stripped = exchange.mutate()
+                .request(r -> r.headers(h -> h.remove(HEADER)))
+                .build();
+        if (!enabled) {
+            return chain.filter(stripped);
+        }
+        return stripped.getPrincipal()
+                .filter(JwtAuthenticationToken.class::isInstance)
+                .map(principal -> stripped.mutate()
+                        .request(r -> r.header(HEADER, sign((JwtAuthenticationToken) principal)))
+                        .build())
+                .defaultIfEmpty(stripped)
+                .flatMap(chain::filter);
+    }
+
+    private String sign(JwtAuthenticationToken authentication) {
+        Map<String, Object> claims = new LinkedHashMap<>();
+        Map<String, Object> jwtClaims = authentication.getToken().getClaims();
+        for (String name : RELAYED_CLAIMS) {
+            if (jwtClaims.containsKey(name)) {
+                claims.put(name, jwtClaims.get(name));
+            }
+        }
+        // Hết hạn cùng lúc với JWT gốc, ở dạng epoch giây như JWT
+        Instant expiresAt = authentication.getToken().getExpiresAt();
+        claims.put("exp", expiresAt != null ? expiresAt.getEpochSecond() : Instant.now().plusSeconds(60).getEpochSecond());
+        try {
+            String payload = Base64.getUrlEncoder().withoutPadding()
+                    .encodeToString(objectMapper.writeValueAsBytes(claims));
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            byte[] signature = mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+            return payload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+        } catch (JsonProcessingException | GeneralSecurityException e) {
+            throw new IllegalStateException("Không ký được header định danh", e);
+        }
+    }
+
+    @Override
+    public int getOrder() {
+        return Ordered.HIGHEST_PRECEDENCE;
+    }
+}
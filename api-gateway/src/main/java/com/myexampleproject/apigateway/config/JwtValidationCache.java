@@ -0,0 +1,86 @@
+package com.myexampleproject.apigateway.config;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Cache các JWT đã verify chữ ký, để cùng 1 token không bị verify lại ở mỗi request.
+ * - Giới hạn số entry (jwt.validation-cache.max-size), key là SHA-256 của token thay vì cả chuỗi token.
+ * - Mỗi entry hết hạn đúng lúc token hết hạn (claim exp), tối đa jwt.validation-cache.max-ttl.
+ * - Các request đồng thời cùng 1 token chỉ verify 1 lần; token lỗi không được cache.
+ * - Hit/miss/eviction xuất ra Prometheus với tên "jwt-validation-cache".
+ */
+@Component
+public class JwtValidationCache {
+
+    private final AsyncCache<String, Jwt> cache;
+
+    public JwtValidationCache(MeterRegistry meterRegistry,
+                              @Value("${jwt.validation-cache.max-size:100000}") long maxSize,
+                              @Value("${jwt.validation-cache.max-ttl:1h}") Duration maxTtl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfter(new TokenExpiry(maxTtl))
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "jwt-validation-cache");
+    }
+
+    public Mono<Jwt> decode(String token, ReactiveJwtDecoder decoder) {
+        // suppressCancel: 1 client hủy request không được hủy lần verify mà request khác đang chờ chung
+        return Mono.fromFuture(
+                cache.get(keyOf(token), (key, executor) -> decoder.decode(token).toFuture()),
+                true);
+    }
+
+    private static String keyOf(String token) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.US_ASCII));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // SHA-256 luôn có trong JDK
+        }
+    }
+
+    // Hết hạn theo exp của chính token; đọc/ghi lại không kéo dài thời gian sống
+    private record TokenExpiry(Duration maxTtl) implements Expiry<String, Jwt> {
+
+        @Override
+        public long expireAfterCreate(String key, Jwt jwt, long currentTime) {
+            Instant expiresAt = jwt.getExpiresAt();
+            if (expiresAt == null) {
+                return maxTtl.toNanos();
+            }
+            Duration remaining = Duration.between(Instant.now(), expiresAt);
+            if (remaining.isNegative()) {
+                return 0;
+            }
+            return Math.min(remaining.toNanos(), maxTtl.toNanos());
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Jwt jwt, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, jwt, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, Jwt jwt, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
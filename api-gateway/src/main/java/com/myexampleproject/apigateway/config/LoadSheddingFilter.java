@@ -0,0 +1,140 @@
+package com.myexampleproject.apigateway.config;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.Ordered;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load shedding thích ứng theo độ trễ upstream, theo từng route (AIMD):
+ * - Mỗi route có 1 giới hạn số request đang xử lý đồng thời.
+ * - Độ trễ trung bình (EWMA) vượt target-latency: giảm giới hạn 10% (tối đa 1 lần / target-latency).
+ * - Độ trễ dưới target và giới hạn đang được dùng tới: tăng giới hạn thêm 1.
+ * - Vượt giới hạn: trả 503 + Retry-After ngay tại gateway, không đẩy thêm vào hàng đợi Tomcat của service.
+ * Route WebSocket / Eureka (kết nối giữ lâu) được loại trừ qua gateway.load-shedding.excluded-routes.
+ */
+@Component
+public class LoadSheddingFilter implements GlobalFilter, Ordered {
+
+    private static final double EWMA_ALPHA = 0.1;
+
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final long targetLatencyNanos;
+    private final int minLimit;
+    private final int maxLimit;
+    private final int initialLimit;
+    private final Set<String> excludedRoutes;
+    private final Map<String, RouteLimit> limits = new ConcurrentHashMap<>();
+
+    public LoadSheddingFilter(MeterRegistry meterRegistry,
+                              @Value("${gateway.load-shedding.enabled:true}") boolean enabled,
+                              @Value("${gateway.load-shedding.target-latency:500ms}") Duration targetLatency,
+                              @Value("${gateway.load-shedding.min-limit:20}") int minLimit,
+                              @Value("${gateway.load-shedding.max-limit:2000}") int maxLimit,
+                              @Value("${gateway.load-shedding.initial-limit:200}") int initialLimit,
+                              @Value("${gateway.load-shedding.excluded-routes:}") Set<String> excludedRoutes) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.targetLatencyNanos = targetLatency.toNanos();
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.initialLimit = initialLimit;
+        this.excludedRoutes = excludedRoutes;
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        if (!enabled || route == null || excludedRoutes.contains(route.getId())) {
+            return chain.filter(exchange);
+        }
+
+        RouteLimit limit = limits.computeIfAbsent(route.getId(), this::newRouteLimit);
+        if (!limit.tryAcquire()) {
+            limit.rejected.increment();
+            exchange.getResponse().setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+            exchange.getResponse().getHeaders().set("Retry-After", "1");
+            return exchange.getResponse().setComplete();
+        }
+
+        long start = System.nanoTime();
+        return chain.filter(exchange)
+                .doFinally(signal -> limit.release(System.nanoTime() - start));
+    }
+
+    private RouteLimit newRouteLimit(String routeId) {
+        RouteLimit limit = new RouteLimit(Counter.builder("gateway.load_shedding.rejected")
+                .tag("route", routeId)
+                .register(meterRegistry));
+        Gauge.builder("gateway.load_shedding.limit", limit.limit, AtomicInteger::get)
+                .tag("route", routeId)
+                .register(meterRegistry);
+        Gauge.builder("gateway.load_shedding.in_flight", limit.inFlight, AtomicInteger::get)
+                .tag("route", routeId)
+                .register(meterRegistry);
+        return limit;
+    }
+
+    @Override
+    public int getOrder() {
+        // Sau RequestRateLimiter của route (429 theo user trước), trước LoadBalancer/NettyRoutingFilter
+        return 10;
+    }
+
+    private class RouteLimit {
+        final AtomicInteger limit = new AtomicInteger(initialLimit);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicLong lastDecrease = new AtomicLong(System.nanoTime());
+        final Counter rejected;
+        // Chỉ là ước lượng: cập nhật không đồng bộ giữa các thread cũng chấp nhận được
+        volatile double latencyEwmaNanos;
+
+        RouteLimit(Counter rejected) {
+            this.rejected = rejected;
+        }
+
+        boolean tryAcquire() {
+            if (inFlight.incrementAndGet() > limit.get()) {
+                inFlight.decrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        void release(long latencyNanos) {
+            int current = inFlight.getAndDecrement();
+            double ewma = latencyEwmaNanos == 0
+                    ? latencyNanos
+                    : latencyEwmaNanos + EWMA_ALPHA * (latencyNanos - latencyEwmaNanos);
+            latencyEwmaNanos = ewma;
+
+            if (ewma > targetLatencyNanos) {
+                // Giảm nhân (10%), tối đa 1 lần mỗi target-latency để không tụt về min chỉ vì 1 loạt response chậm
+                long now = System.nanoTime();
+                long last = lastDecrease.get();
+                if (now - last >= targetLatencyNanos && lastDecrease.compareAndSet(last, now)) {
+                    limit.updateAndGet(l -> Math.max(minLimit, (int) (l * 0.9)));
+                }
+            } else if (current * 2 >= limit.get()) {
+                limit.updateAndGet(l -> Math.min(maxLimit, l + 1));
+            }
+        }
+    }
+}
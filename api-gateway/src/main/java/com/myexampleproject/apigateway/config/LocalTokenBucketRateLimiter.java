@@ -0,0 +1,111 @@
+package com.myexampleproject.apigateway.config;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.ratelimit.AbstractRateLimiter;
+import org.springframework.cloud.gateway.support.ConfigurationService;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Token bucket trong process cho filter RequestRateLimiter: 1 bucket / (route, key của KeyResolver),
+ * cập nhật bằng CAS (không lock). Giới hạn theo từng instance gateway;
+ * cần giới hạn chung cả cluster thì đổi rate-limiter của route sang RedisRateLimiter có sẵn của Spring Cloud Gateway.
+ *
+ * Cấu hình theo route (args của filter):
+ *   local-rate-limiter.replenish-rate  = số token nạp lại mỗi giây
+ *   local-rate-limiter.burst-capacity  = số token tối đa (cho phép burst)
+ */
+@Primary
+@Component
+public class LocalTokenBucketRateLimiter extends AbstractRateLimiter<LocalTokenBucketRateLimiter.Config> {
+
+    public static final String CONFIGURATION_PROPERTY_NAME = "local-rate-limiter";
+
+    private final Config defaultConfig;
+    // Bucket rảnh quá idle-ttl đã nạp đầy lại từ lâu -> bỏ đi cũng như nhau
+    private final Cache<String, AtomicReference<Bucket>> buckets;
+
+    public LocalTokenBucketRateLimiter(ConfigurationService configurationService,
+                                       @Value("${gateway.rate-limit.default-replenish-rate:50}") int replenishRate,
+                                       @Value("${gateway.rate-limit.default-burst-capacity:100}") int burstCapacity,
+                                       @Value("${gateway.rate-limit.max-buckets:100000}") long maxBuckets,
+                                       @Value("${gateway.rate-limit.idle-ttl:5m}") Duration idleTtl) {
+        super(Config.class, CONFIGURATION_PROPERTY_NAME, configurationService);
+        this.defaultConfig = new Config();
+        this.defaultConfig.setReplenishRate(replenishRate);
+        this.defaultConfig.setBurstCapacity(burstCapacity);
+        this.buckets = Caffeine.newBuilder()
+                .maximumSize(maxBuckets)
+                .expireAfterAccess(idleTtl)
+                .build();
+    }
+
+    @Override
+    public Mono<Response> isAllowed(String routeId, String id) {
+        Config config = getConfig().getOrDefault(routeId, defaultConfig);
+        AtomicReference<Bucket> bucket = buckets.get(routeId + ":" + id,
+                key -> new AtomicReference<>(new Bucket(config.getBurstCapacity(), System.nanoTime())));
+
+        long now = System.nanoTime();
+        while (true) {
+            Bucket current = bucket.get();
+            // Nạp lại theo thời gian đã trôi qua; thread khác có thể đã ghi thời điểm mới hơn
+            long elapsed = Math.max(0, now - current.refilledAt());
+            double tokens = Math.min(config.getBurstCapacity(),
+                    current.tokens() + elapsed * config.getReplenishRate() / 1_000_000_000d);
+            boolean allowed = tokens >= config.getRequestedTokens();
+            Bucket next = new Bucket(allowed ? tokens - config.getRequestedTokens() : tokens,
+                    Math.max(now, current.refilledAt()));
+            if (bucket.compareAndSet(current, next)) {
+                return Mono.just(new Response(allowed, headers(config, (long) next.tokens())));
+            }
+        }
+    }
+
+    private static Map<String, String> headers(Config config, long remaining) {
+        return Map.of(
+                "X-RateLimit-Remaining", String.valueOf(remaining),
+                "X-RateLimit-Replenish-Rate", String.valueOf(config.getReplenishRate()),
+                "X-RateLimit-Burst-Capacity", String.valueOf(config.getBurstCapacity()));
+    }
+
+    private record Bucket(double tokens, long refilledAt) {
+    }
+
+    public static class Config {
+        private int replenishRate = 50;
+        private int burstCapacity = 100;
+        private int requestedTokens = 1;
+
+        public int getReplenishRate() {
+            return replenishRate;
+        }
+
+        public void setReplenishRate(int replenishRate) {
+            this.replenishRate = replenishRate;
+        }
+
+        public int getBurstCapacity() {
+            return burstCapacity;
+        }
+
+        public void setBurstCapacity(int burstCapacity) {
+            this.burstCapacity = burstCapacity;
+        }
+
+        public int getRequestedTokens() {
+            return requestedTokens;
+        }
+
+        public void setRequestedTokens(int requestedTokens) {
+            this.requestedTokens = requestedTokens;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.myexampleproject.apigateway.config;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cloud.gateway.filter.GatewayFilterChain;
+import org.springframework.cloud.gateway.filter.GlobalFilter;
+import org.springframework.cloud.gateway.filter.NettyWriteResponseFilter;
+import org.springframework.cloud.gateway.route.Route;
+import org.springframework.cloud.gateway.support.ServerWebExchangeUtils;
+import org.springframework.core.Ordered;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.http.server.reactive.ServerHttpResponseDecorator;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Cache response của các GET công khai trên route product-service (/api/product/**) ngay tại gateway:
+ * - Body giữ trong bộ nhớ dạng gzip, trả thẳng cho client nhận gzip (giải nén cho client không nhận).
+ * - ETag tính từ body; If-None-Match khớp -> 304, không gọi upstream.
+ * - Nhiều request hụt cùng 1 key cùng lúc: chỉ 1 request đi upstream, các request khác chờ kết quả của nó.
+ * - Xóa toàn bộ khi có event trên product-cache-update-topic, hoặc khi gateway này chuyển 1 request ghi
+ *   (POST/PUT/DELETE) tới product-service (xóa sản phẩm không phát event). TTL chỉ là lưới an toàn.
+ */
+@Component
+public class ProductResponseCacheFilter implements GlobalFilter, Ordered {
+
+    private static final String PRODUCT_ROUTE_ID = "product-service";
+
+    private final AsyncCache<String, CachedResponse> cache;
+
+    public ProductResponseCacheFilter(MeterRegistry meterRegistry,
+                                      @Value("${gateway.product-cache.max-size:10000}") long maxSize,
+                                      @Value("${gateway.product-cache.ttl:60s}") Duration ttl) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "gateway-product-response-cache");
+    }
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, GatewayFilterChain chain) {
+        Route route = exchange.getAttribute(ServerWebExchangeUtils.GATEWAY_ROUTE_ATTR);
+        if (route == null || !PRODUCT_ROUTE_ID.equals(route.getId())) {
+            return chain.filter(exchange);
+        }
+        if (!HttpMethod.GET.equals(exchange.getRequest().getMethod())) {
+            // Ghi dữ liệu sản phẩm: bỏ cache của instance này ngay khi ghi xong
+            return chain.filter(exchange).doFinally(signal -> invalidateAll());
+        }
+
+        String key = exchange.getRequest().getURI().getRawPath() + "?" + exchange.getRequest().getURI().getRawQuery();
+        CompletableFuture<CachedResponse> loading = new CompletableFuture<>();
+        CompletableFuture<CachedResponse> cached = cache.get(key, (k, executor) -> loading);
+        if (cached == loading) {
+            return loadFromUpstream(exchange, chain, loading);
+        }
+
+        // Hit, hoặc đang có request khác đi upstream cho cùng key -> chờ nó.
+        // Kết quả null (response không cache được) -> tự gọi upstream như bình thường.
+        return Mono.fromFuture(cached, true)
+                .flatMap(response -> writeCached(exchange, response))
+                .switchIfEmpty(Mono.defer(() -> chain.filter(exchange)));
+    }
+
+    private Mono<Void> loadFromUpstream(ServerWebExchange exchange, GatewayFilterChain chain,
+                                        CompletableFuture<CachedResponse> loading) {
+        ServerHttpResponse original = exchange.getResponse();
+        ServerHttpResponseDecorator capturing = new ServerHttpResponseDecorator(original) {
+            @Override
+            public Mono<Void> writeWith(Publisher<? extends DataBuffer> body) {
+                return DataBufferUtils.join(Flux.from(body)).flatMap(buffer -> {
+                    byte[] bytes = new byte[buffer.readableByteCount()];
+                    buffer.read(bytes);
+                    DataBufferUtils.release(buffer);
+
+                    if (HttpStatus.OK.equals(getStatusCode()) && !getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+                        CachedResponse response = CachedResponse.of(getHeaders().getContentType(), bytes);
+                        getHeaders().setETag(response.etag());
+                        loading.complete(response);
+                    } else {
+                        loading.complete(null); // Không cache lỗi / response đã nén sẵn
+                    }
+                    return getDelegate().writeWith(Mono.just(bufferFactory().wrap(bytes)));
+                }).switchIfEmpty(Mono.defer(() -> getDelegate().writeWith(Flux.empty()))); // Body rỗng
+            }
+        };
+
+        // Lấy body chưa nén từ upstream để tự nén 1 lần khi lưu cache
+        ServerWebExchange mutated = exchange.mutate()
+                .request(r -> r.headers(h -> h.remove(HttpHeaders.ACCEPT_ENCODING)))
+                .response(capturing)
+                .build();
+        return chain.filter(mutated)
+                .doFinally(signal -> loading.complete(null)); // Upstream lỗi / client hủy: nhả các request đang chờ
+    }
+
+    private Mono<Void> writeCached(ServerWebExchange exchange, CachedResponse cached) {
+        ServerHttpResponse response = exchange.getResponse();
+        HttpHeaders headers = response.getHeaders();
+        headers.setETag(cached.etag());
+        headers.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        if (exchange.getRequest().getHeaders().getIfNoneMatch().contains(cached.etag())) {
+            response.setStatusCode(HttpStatus.NOT_MODIFIED);
+            return response.setComplete();
+        }
+
+        response.setStatusCode(HttpStatus.OK);
+        if (cached.contentType() != null) {
+            headers.setContentType(cached.contentType());
+        }
+        byte[] body;
+        String acceptEncoding = exchange.getRequest().getHeaders().getFirst(HttpHeaders.ACCEPT_ENCODING);
+        if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, "gzip");
+            body = cached.gzippedBody();
+        } else {
+            body = gunzip(cached.gzippedBody());
+        }
+        headers.setContentLength(body.length);
+        return response.writeWith(Mono.just(response.bufferFactory().wrap(body)));
+    }
+
+    /**
+     * Mỗi gateway nghe bằng group riêng: mọi instance đều nhận event, chỉ cần key (SKU) nên value đọc dạng byte[],
+     * không cần schema registry. Group id cố định theo host + port (như ProductCatalogCache):
+     * restart dùng lại group cũ thay vì để lại 1 group mồ côi mỗi lần.
+     */
+    @KafkaListener(
+            topics = "product-cache-update-topic",
+            groupId = "${gateway.product-cache.group-id:${spring.application.name}-product-cache-${spring.cloud.client.hostname:localhost}-${server.port:8080}}",
+            properties = "auto.offset.reset=latest"
+    )
+    public void onProductCacheUpdate(ConsumerRecord<String, byte[]> record) {
+        invalidateAll();
+    }
+
+    private void invalidateAll() {
+        cache.synchronous().invalidateAll();
+    }
+
+    @Override
+    public int getOrder() {
+        // Phải bọc response trước NettyWriteResponseFilter; chạy trước cả load shedding: hit không tốn upstream
+        return NettyWriteResponseFilter.WRITE_RESPONSE_FILTER_ORDER - 1;
+    }
+
+    private static byte[] gunzip(byte[] gzipped) {
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+            return in.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private record CachedResponse(MediaType contentType, byte[] gzippedBody, String etag) {
+
+        static CachedResponse of(MediaType contentType, byte[] body) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+            try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                gzip.write(body);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return new CachedResponse(contentType, out.toByteArray(), etagOf(body));
+        }
+
+        private static String etagOf(byte[] body) {
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(body);
+                return "\"" + HexFormat.of().formatHex(digest, 0, 16) + "\"";
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
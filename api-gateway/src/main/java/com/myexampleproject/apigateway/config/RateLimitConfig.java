@@ -0,0 +1,35 @@
+package com.myexampleproject.apigateway.config;
+
+import org.springframework.cloud.gateway.filter.ratelimit.KeyResolver;
+import org.springframework.cloud.gateway.support.ipresolver.XForwardedRemoteAddressResolver;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Mono;
+
+import java.net.InetSocketAddress;
+
+@Configuration
+public class RateLimitConfig {
+
+    // Chỉ tin 1 proxy (nginx, $proxy_add_x_forwarded_for): IP client là phần tử CUỐI của X-Forwarded-For,
+    // các phần tử phía trước do client tự gửi nên giả mạo được. Không có header thì dùng remote address.
+    private static final XForwardedRemoteAddressResolver CLIENT_ADDRESS_RESOLVER =
+            XForwardedRemoteAddressResolver.maxTrustedIndex(1);
+
+    /**
+     * Key cho RequestRateLimiter: user đã đăng nhập thì theo tên user, khách thì theo IP client.
+     */
+    @Bean
+    public KeyResolver userKeyResolver() {
+        return exchange -> exchange.getPrincipal()
+                .map(principal -> "user:" + principal.getName())
+                .switchIfEmpty(Mono.fromSupplier(() -> "ip:" + clientIp(exchange)));
+    }
+
+    private static String clientIp(ServerWebExchange exchange) {
+        InetSocketAddress remote = CLIENT_ADDRESS_RESOLVER.resolve(exchange);
+        return remote != null && remote.getAddress() != null ? remote.getAddress().getHostAddress()
+                : remote != null ? remote.getHostString() : "unknown";
+    }
+}
@@ -6,11 +6,9 @@ import org.springframework.http.HttpMethod;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.reactive.EnableWebFluxSecurity;
 import org.springframework.security.config.web.server.ServerHttpSecurity;
-import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
 import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
 import org.springframework.security.web.server.SecurityWebFilterChain;
-import reactor.core.publisher.Mono;
 
 import java.time.Duration;
 import java.time.Instant;
@@ -20,17 +18,20 @@ import java.util.concurrent.ConcurrentHashMap;
 @Configuration
 @EnableWebFluxSecurity
 public class SecurityConfig {
-    private final Map<String, Mono<Jwt>> tokenCache = new ConcurrentHashMap<>();
+    private final JwtValidationCache jwtValidationCache;
     private final Map<String, CachedDecoder> jwkDecoderCache = new ConcurrentHashMap<>();
+
+    public SecurityConfig(JwtValidationCache jwtValidationCache) {
+        this.jwtValidationCache = jwtValidationCache;
+    }
+
     @Bean
     public ReactiveJwtDecoder reactiveJwtDecoder() {
         return token -> {
             String jwkUri = "http://keycloak:8085/realms/spring-boot-microservices-realm/protocol/openid-connect/certs";
             ReactiveJwtDecoder decoder = getCachedDecoder(jwkUri);
-            return tokenCache.computeIfAbsent(token,
-                    t -> Mono.defer(() -> decoder.decode(t))
-                            .cache(Duration.ofMinutes(10))
-            );
+            // Cache có giới hạn, hết hạn theo exp của token (thay cho Map không bao giờ dọn)
+            return jwtValidationCache.decode(token, decoder);
         };
     }
 
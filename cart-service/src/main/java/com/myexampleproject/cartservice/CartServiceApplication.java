@@ -1,5 +1,6 @@
 package com.myexampleproject.cartservice;
 
+import com.myexampleproject.common.cache.ProductCatalogCache;
 import com.myexampleproject.common.exception.GlobalExceptionHandler;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -9,7 +10,7 @@ import org.springframework.scheduling.annotation.EnableAsync;
 //đánh dấu đây là một ứng dụng Spring Boot,
 // cho phép tự động cấu hình và quét các thành phần trong dự án.
 @SpringBootApplication
-@Import({ GlobalExceptionHandler.class })
+@Import({ GlobalExceptionHandler.class, ProductCatalogCache.class })
 @EnableAsync
 public class CartServiceApplication {
     public static void main(String[] args) {
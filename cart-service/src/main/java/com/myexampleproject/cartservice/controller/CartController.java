@@ -8,6 +8,8 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 
 @RestController
@@ -17,12 +19,27 @@ public class CartController {
 
     private final CartService cartService;
 
+    // Giới hạn số dòng mỗi lần thêm bundle
+    private static final int MAX_BUNDLE_ITEMS = 100;
+
     @PostMapping("/add/{userId}")
     public ResponseEntity<?> addToCart(@PathVariable String userId, @RequestBody CartItemRequest item) {
         cartService.addItem(userId, item); // Sửa: Không gán vào biến
         return ResponseEntity.ok().build(); // Sửa: Trả về 200 OK rỗng
     }
 
+    // Thêm nhiều sản phẩm 1 lần (combo / bundle): body là danh sách CartItemRequest
+    @PostMapping("/add-bundle/{userId}")
+    public ResponseEntity<?> addBundleToCart(@PathVariable String userId, @RequestBody List<CartItemRequest> items) {
+        if (items == null || items.isEmpty())
+            return ResponseEntity.badRequest().body(Map.of("error", "items required"));
+        if (items.size() > MAX_BUNDLE_ITEMS)
+            return ResponseEntity.badRequest().body(Map.of("error", "Too many items", "max", MAX_BUNDLE_ITEMS));
+
+        cartService.addItems(userId, items);
+        return ResponseEntity.ok().build();
+    }
+
     @PostMapping("/remove/{userId}/{sku}")
     public ResponseEntity<?> remove(@PathVariable String userId, @PathVariable String sku) { // Sửa 1: Đổi void -> ResponseEntity<?>
         cartService.removeItem(userId, sku); // Sửa 2: Không gán vào biến
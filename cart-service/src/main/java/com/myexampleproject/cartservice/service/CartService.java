@@ -1,6 +1,7 @@
 package com.myexampleproject.cartservice.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.myexampleproject.common.cache.ProductCatalogCache;
 import com.myexampleproject.common.dto.CartItemRequest;
 import com.myexampleproject.common.event.*;
 import com.myexampleproject.cartservice.model.CartEntity;
@@ -9,7 +10,13 @@ import com.myexampleproject.cartservice.repository.CartRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
@@ -17,6 +24,7 @@ import org.springframework.transaction.annotation.Transactional; // <-- Giữ im
 import org.springframework.kafka.annotation.KafkaListener; // <-- Thêm import này
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
@@ -34,13 +42,28 @@ public class CartService {
     private final KafkaTemplate<String, CartCheckoutEvent> kafkaTemplate;
 
     private static final String REDIS_CART_PREFIX = "cart:";
-    private static final String REDIS_QTY_HASH_PREFIX = "cart:qty:";   // MỚI: Hash chứa số lượng
-    private static final String REDIS_DATA_HASH_PREFIX = "cart:data:"; // MỚI: Hash chứa thông tin (tên, giá)
-    private static final Duration REDIS_TTL = Duration.ofHours(24);
+    private static final String REDIS_CART_HASH_PREFIX = "cart:lines:"; // 1 hash / user: sku -> "số lượng|giá snapshot"
+    // Layout cũ (2 hash), chỉ còn dùng để migrate giỏ chưa hết hạn
+    private static final String REDIS_QTY_HASH_PREFIX = "cart:qty:";
+    private static final String REDIS_DATA_HASH_PREFIX = "cart:data:";
+    private static final RedisScript<Long> CART_ADD_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/cart-add.lua"), Long.class);
+    private static final RedisScript<Long> CART_MIGRATE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/cart-migrate.lua"), Long.class);
+    private static final RedisSerializer<Long> LONG_RESULT = new GenericToStringSerializer<>(Long.class);
+
+    // TTL của giỏ và cửa sổ gia hạn: trong cùng 1 cửa sổ, các lần thêm không EXPIRE lại
+    @Value("${cart.ttl:24h}")
+    private Duration cartTtl;
+    @Value("${cart.ttl-refresh-window:1h}")
+    private Duration ttlRefreshWindow;
+    // Đọc/migrate giỏ ở layout 2 hash cũ; tắt được sau khi mọi giỏ cũ đã hết TTL
+    @Value("${cart.legacy-layout.enabled:true}")
+    private boolean legacyLayoutEnabled;
     private static final String CHECKOUT_TOPIC = "cart-checkout-topic";
     private static final String CART_CLEANER_GROUP_ID = "cart-cleaner-group";
     private final ObjectMapper objectMapper; // 1. Inject ObjectMapper
-    private static final String PRODUCT_CACHE_KEY = "products:cache"; // 2. Key cache giống OrderService
+    private final ProductCatalogCache productCatalogCache; // 2. Cache sản phẩm 2 tầng (Caffeine + Redis), giống OrderService
 
     // THÊM HÀM MỚI: Listener để xây dựng Product Cache
     // ==========================================================
@@ -55,7 +78,7 @@ public class CartService {
                 ProductCacheEvent event = objectMapper.convertValue(record.value(), ProductCacheEvent.class);
                 String sku = event.getSkuCode();
 
-                redisTemplate.opsForHash().put(PRODUCT_CACHE_KEY, sku, event);
+                productCatalogCache.put(event); // Redis + near-cache của instance này
                 log.debug("CartService cached product info for SKU: {}", sku);
 
             } catch (Exception e) {
@@ -110,92 +133,115 @@ public class CartService {
     // ==========================================================
 
     /**
-     * SỬA LẠI HOÀN TOÀN: Dùng HINCRBY để thêm item (Atomic)
+     * Thêm 1 dòng: cùng đường đi với addItems (1 lần tra giá + 1 EVALSHA).
      */
     public void addItem(String userId, CartItemRequest line) {
-        // 1. Tra cứu giá
-        ProductCacheEvent productInfo = getProductFromCache(line.getSkuCode());
-        if (productInfo == null) {
-            throw new RuntimeException("Product not found: " + line.getSkuCode());
+        addItems(userId, List.of(line));
+    }
+
+    /**
+     * Thêm nhiều dòng (VD: "thêm combo") trong 1 lần gọi Redis:
+     * tra giá cả bundle bằng 1 lần getAll, rồi cộng số lượng + ghi giá snapshot mọi dòng và gia hạn TTL trong scripts/cart-add.lua.
+     * TTL chỉ được gia hạn khi đã qua cửa sổ cart.ttl-refresh-window kể từ lần gia hạn trước.
+     */
+    public void addItems(String userId, List<CartItemRequest> lines) {
+        // 1. Tra cứu giá (near-cache + tối đa 1 HMGET cho cả bundle)
+        Map<String, ProductCacheEvent> products = getProductsFromCache(
+                lines.stream().map(CartItemRequest::getSkuCode).toList());
+        for (CartItemRequest line : lines) {
+            if (!products.containsKey(line.getSkuCode())) {
+                throw new RuntimeException("Product not found: " + line.getSkuCode());
+            }
+        }
+
+        // 2. ARGV: TTL, ngưỡng gia hạn, rồi (sku, qty, giá snapshot) cho từng dòng
+        List<byte[]> args = new ArrayList<>(2 + lines.size() * 3);
+        args.add(String.valueOf(cartTtl.toSeconds()).getBytes(StandardCharsets.UTF_8));
+        args.add(String.valueOf(cartTtl.minus(ttlRefreshWindow).toSeconds()).getBytes(StandardCharsets.UTF_8));
+        for (CartItemRequest line : lines) {
+            args.add(line.getSkuCode().getBytes(StandardCharsets.UTF_8));
+            args.add(String.valueOf(line.getQuantity()).getBytes(StandardCharsets.UTF_8));
+            args.add(priceOf(products.get(line.getSkuCode())).toPlainString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        // 3. 1 round-trip (EVALSHA, tự EVAL lại nếu Redis chưa cache script)
+        // Đã tắt layout cũ: không truyền cart:qty nên script không kiểm tra / không migrate
+        List<String> keys = legacyLayoutEnabled
+                ? List.of(REDIS_CART_HASH_PREFIX + userId, REDIS_QTY_HASH_PREFIX + userId)
+                : List.of(REDIS_CART_HASH_PREFIX + userId);
+        Long added = redisTemplate.execute(CART_ADD_SCRIPT, RedisSerializer.byteArray(), LONG_RESULT, keys, args.toArray());
+        if (legacyLayoutEnabled && added != null && added < 0) {
+            // Giỏ còn ở layout 2 hash: chuyển sang layout mới rồi thêm lại
+            migrateLegacyCart(userId);
+            redisTemplate.execute(CART_ADD_SCRIPT, RedisSerializer.byteArray(), LONG_RESULT, keys, args.toArray());
         }
-        String qtyKey = REDIS_QTY_HASH_PREFIX + userId;
-        String dataKey = REDIS_DATA_HASH_PREFIX + userId;
-        String sku = line.getSkuCode();
-        Long qty = (long) line.getQuantity(); // HINCRBY dùng Long
-        // 2. LỆNH NGUYÊN TỬ (ATOMIC)
-        // Tăng số lượng trong hash "cart:qty:{userId}"
-        redisTemplate.opsForHash().increment(qtyKey, sku, qty);
-        // 3. Cập nhật snapshot (Tên, Giá, Ảnh) vào hash "cart:data:{userId}"
-        // (Chúng ta lưu cả object ProductCacheEvent làm value)
-        redisTemplate.opsForHash().put(dataKey, sku, productInfo);
-        // 4. Đặt thời gian hết hạn (TTL) cho cả 2 key
-        redisTemplate.expire(qtyKey, REDIS_TTL);
-        redisTemplate.expire(dataKey, REDIS_TTL);
     }
 
     // THÊM HÀM HELPER MỚI:
-    private ProductCacheEvent getProductFromCache(String skuCode) {
+    private Map<String, ProductCacheEvent> getProductsFromCache(List<String> skuCodes) {
         try {
-            Object cachedData = redisTemplate.opsForHash().get(PRODUCT_CACHE_KEY, skuCode);
-            if (cachedData == null) return null;
-            return objectMapper.convertValue(cachedData, ProductCacheEvent.class);
+            return productCatalogCache.getAll(skuCodes);
         } catch (Exception e) {
             log.error("Lỗi khi đọc Product cache: {}", e.getMessage());
-            return null;
+            return Map.of();
         }
     }
 
     // ==========================================================
     /**
-     * SỬA LẠI HOÀN TOÀN: Dùng HDEL để xóa item (Atomic)
+     * Dùng HDEL để xóa item (Atomic)
      */
     public void removeItem(String userId, String sku) {
-        String qtyKey = REDIS_QTY_HASH_PREFIX + userId;
-        String dataKey = REDIS_DATA_HASH_PREFIX + userId;
-
-        // Xóa field (sku) khỏi cả 2 hash
-        redisTemplate.opsForHash().delete(qtyKey, sku);
-        redisTemplate.opsForHash().delete(dataKey, sku);
+        byte[] field = sku.getBytes(StandardCharsets.UTF_8);
+        if (!legacyLayoutEnabled) {
+            redisTemplate.execute((RedisCallback<Long>) connection ->
+                    connection.hashCommands().hDel(rawKey(REDIS_CART_HASH_PREFIX + userId), field));
+            return;
+        }
+        // Giỏ có thể chưa migrate: xóa ở cả 2 layout trong 1 round-trip (pipeline)
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hDel(rawKey(REDIS_CART_HASH_PREFIX + userId), field);
+            connection.hashCommands().hDel(rawKey(REDIS_QTY_HASH_PREFIX + userId), field);
+            connection.hashCommands().hDel(rawKey(REDIS_DATA_HASH_PREFIX + userId), field);
+            return null;
+        });
     }
 
     /**
-     * Hàm xem giỏ hàng (giữ nguyên)
-     */
-    /**
-     * SỬA LẠI HOÀN TOÀN: Tái tạo CartEntity từ 2 Hash
+     * Tái tạo CartEntity từ 1 hash: số lượng + giá lấy từ giỏ, tên + ảnh lấy từ catalog cache lúc đọc.
      */
     public CartEntity viewCart(String userId) {
-        String qtyKey = REDIS_QTY_HASH_PREFIX + userId;
-        String dataKey = REDIS_DATA_HASH_PREFIX + userId;
-
-        // 1. Đọc cả 2 hash
-        Map<Object, Object> qtyMap = redisTemplate.opsForHash().entries(qtyKey);
-        Map<Object, Object> dataMap = redisTemplate.opsForHash().entries(dataKey);
-
-        if (qtyMap.isEmpty()) {
+        // 1. 1 HGETALL; giỏ trống thì thử migrate từ layout cũ
+        Map<byte[], byte[]> lines = redisTemplate.execute((RedisCallback<Map<byte[], byte[]>>) connection ->
+                connection.hashCommands().hGetAll(rawKey(REDIS_CART_HASH_PREFIX + userId)));
+        if ((lines == null || lines.isEmpty()) && legacyLayoutEnabled) {
+            lines = migrateLegacyCart(userId);
+        }
+        if (lines == null || lines.isEmpty()) {
             return CartEntity.builder().userId(userId).items(new ArrayList<>()).build();
         }
 
-        List<CartItemEntity> items = new ArrayList<>();
+        // 2. Giải mã "qty|price"
+        Map<String, String> encoded = new LinkedHashMap<>();
+        lines.forEach((sku, line) -> encoded.put(
+                new String(sku, StandardCharsets.UTF_8), new String(line, StandardCharsets.UTF_8)));
 
-        // 2. Tái tạo lại danh sách items
-        for (Map.Entry<Object, Object> entry : qtyMap.entrySet()) {
-            String sku = (String) entry.getKey();
-            Integer quantity = ((Number) entry.getValue()).intValue(); // HINCRBY trả về Long, cast an toàn
+        // Thông tin hiển thị của cả giỏ: 1 lần tra (near-cache + tối đa 1 HMGET)
+        Map<String, ProductCacheEvent> catalog = getProductsFromCache(new ArrayList<>(encoded.keySet()));
 
-            Object data = dataMap.get(sku);
-            ProductCacheEvent productInfo = null;
-            if (data != null) {
-                // Convert (LinkedHashMap) -> ProductCacheEvent
-                productInfo = objectMapper.convertValue(data, ProductCacheEvent.class);
-            }
+        List<CartItemEntity> items = new ArrayList<>();
+        for (Map.Entry<String, String> entry : encoded.entrySet()) {
+            String sku = entry.getKey();
+            String line = entry.getValue();
+            int separator = line.indexOf('|');
+            ProductCacheEvent productInfo = catalog.get(sku);
 
             CartItemEntity item = CartItemEntity.builder()
                     .skuCode(sku)
-                    .quantity(quantity)
+                    .quantity(Integer.parseInt(line, 0, separator, 10))
                     .productName(productInfo != null ? productInfo.getName() : "Sản phẩm không rõ")
-                    .price(productInfo != null ? productInfo.getPrice() : BigDecimal.ZERO)
-                    .imageUrl(productInfo != null ? productInfo.getImageUrl() : null) // Giả sử ProductCacheEvent có imageUrl
+                    .price(new BigDecimal(line.substring(separator + 1))) // Giá lúc thêm vào giỏ
+                    .imageUrl(productInfo != null ? productInfo.getImageUrl() : null)
                     .build();
             items.add(item);
         }
@@ -204,6 +250,68 @@ public class CartService {
         // Lưu ý: 'version' và 'id' của item sẽ là null, điều này OK
     }
 
+    /**
+     * Chuyển giỏ từ layout cũ (cart:qty + cart:data chứa nguyên ProductCacheEvent) sang cart:lines.
+     * Chạy lười khi đọc/ghi giỏ chưa migrate; sau cart.ttl mọi giỏ cũ đã hết hạn
+     * và có thể tắt bằng cart.legacy-layout.enabled=false.
+     * Java chỉ tính giá snapshot; số lượng được đọc và ghi trong scripts/cart-migrate.lua (atomic).
+     * Trả về hash mới (rỗng nếu không có giỏ cũ).
+     */
+    private Map<byte[], byte[]> migrateLegacyCart(String userId) {
+        byte[] qtyKey = rawKey(REDIS_QTY_HASH_PREFIX + userId);
+        byte[] dataKey = rawKey(REDIS_DATA_HASH_PREFIX + userId);
+        byte[] cartKey = rawKey(REDIS_CART_HASH_PREFIX + userId);
+
+        // 1. Đọc 2 hash cũ trong 1 round-trip
+        List<Object> hashes = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hGetAll(qtyKey);
+            connection.hashCommands().hGetAll(dataKey);
+            return null;
+        });
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> qtyMap = (Map<Object, Object>) hashes.get(0);
+        @SuppressWarnings("unchecked")
+        Map<Object, Object> dataMap = (Map<Object, Object>) hashes.get(1);
+        if (qtyMap == null || qtyMap.isEmpty()) {
+            return Map.of();
+        }
+
+        // 2. Giá snapshot của mỗi dòng (lấy từ snapshot cũ, thiếu thì lấy giá hiện tại trong catalog)
+        Map<String, ProductCacheEvent> catalog = getProductsFromCache(
+                qtyMap.keySet().stream().map(String.class::cast).toList());
+        List<byte[]> args = new ArrayList<>(1 + qtyMap.size() * 2);
+        args.add(String.valueOf(cartTtl.toSeconds()).getBytes(StandardCharsets.UTF_8));
+        for (Object key : qtyMap.keySet()) {
+            String sku = (String) key;
+            Object data = dataMap != null ? dataMap.get(sku) : null;
+            ProductCacheEvent snapshot = data != null
+                    ? objectMapper.convertValue(data, ProductCacheEvent.class) : catalog.get(sku);
+            args.add(sku.getBytes(StandardCharsets.UTF_8));
+            args.add(priceOf(snapshot).toPlainString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        // 3. Ghi hash mới + TTL và xóa 2 hash cũ atomic (0 = request khác đã migrate trước)
+        List<String> keys = List.of(REDIS_CART_HASH_PREFIX + userId, REDIS_QTY_HASH_PREFIX + userId,
+                REDIS_DATA_HASH_PREFIX + userId);
+        Long migrated = redisTemplate.execute(CART_MIGRATE_SCRIPT, RedisSerializer.byteArray(), LONG_RESULT,
+                keys, args.toArray());
+        if (migrated != null && migrated > 0) {
+            log.info("Đã migrate giỏ của user {} sang layout 1 hash ({} dòng)", userId, migrated);
+        }
+
+        Map<byte[], byte[]> lines = redisTemplate.execute((RedisCallback<Map<byte[], byte[]>>) connection ->
+                connection.hashCommands().hGetAll(cartKey));
+        return lines != null ? lines : Map.of();
+    }
+
+    private static BigDecimal priceOf(ProductCacheEvent product) {
+        return product != null && product.getPrice() != null ? product.getPrice() : BigDecimal.ZERO;
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
     // ==========================================================
     // HÀM CHECKOUT VÀ LISTENER (Giữ nguyên như đã sửa)
     // ==========================================================
@@ -262,11 +370,10 @@ public class CartService {
 
                 // ... (Logic dọn dẹp của bạn giữ nguyên) ...
                 cartRepository.deleteById(userId);
-                String qtyKey = REDIS_QTY_HASH_PREFIX + userId;
-                String dataKey = REDIS_DATA_HASH_PREFIX + userId;
-                redisTemplate.delete(List.of(qtyKey, dataKey)); // (Xóa 2 key hash)
+                redisTemplate.delete(List.of(REDIS_CART_HASH_PREFIX + userId,
+                        REDIS_QTY_HASH_PREFIX + userId, REDIS_DATA_HASH_PREFIX + userId)); // (Kể cả layout cũ)
 
-                log.info("CLEANUP: Đã dọn dẹp (DB & 2 Hashes) cho user {}", userId);
+                log.info("CLEANUP: Đã dọn dẹp (DB & Redis) cho user {}", userId);
 
             } catch (Exception e) {
                 log.error("CLEANUP FAILED: Lỗi khi dọn dẹp giỏ hàng (record key {}): {}", record.key(), e.getMessage(), e);
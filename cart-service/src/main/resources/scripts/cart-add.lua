@@ -0,0 +1,32 @@
+-- Thêm 1 hoặc nhiều dòng vào giỏ trong 1 lần gọi Redis (atomic).
+-- KEYS[1] = cart:lines:{userId}: 1 hash / user, field = sku, value = "số lượng|giá snapshot"
+-- KEYS[2] = cart:qty:{userId} (layout 2 hash cũ, chỉ để phát hiện giỏ chưa migrate);
+--           không truyền khi cart.legacy-layout.enabled=false
+-- ARGV[1] = TTL của giỏ (giây)
+-- ARGV[2] = chỉ gia hạn khi TTL còn lại nhỏ hơn giá trị này (giây):
+--           gia hạn 1 lần / cửa sổ thay vì EXPIRE ở mọi lần thêm
+-- ARGV[3..] = từng bộ 3 (sku, số lượng cộng thêm, giá snapshot)
+--
+-- Trả về số dòng đã thêm, hoặc -1 nếu giỏ vẫn ở layout cũ (Java migrate rồi gọi lại).
+
+if KEYS[2] and redis.call('EXISTS', KEYS[2]) == 1 then
+    return -1
+end
+
+local lines = 0
+for i = 3, #ARGV, 3 do
+    local qty = tonumber(ARGV[i + 1])
+    local current = redis.call('HGET', KEYS[1], ARGV[i])
+    if current then
+        qty = qty + tonumber(string.match(current, '^[^|]+'))
+    end
+    redis.call('HSET', KEYS[1], ARGV[i], string.format('%d|%s', qty, ARGV[i + 2]))
+    lines = lines + 1
+end
+
+-- TTL = -1 khi key vừa được tạo (chưa có hạn)
+if redis.call('TTL', KEYS[1]) < tonumber(ARGV[2]) then
+    redis.call('EXPIRE', KEYS[1], ARGV[1])
+end
+
+return lines
@@ -0,0 +1,31 @@
+-- Chuyển giỏ từ layout 2 hash cũ sang cart:lines trong 1 lần gọi Redis (atomic).
+-- KEYS[1] = cart:lines:{userId}
+-- KEYS[2] = cart:qty:{userId}  (sku -> số lượng)
+-- KEYS[3] = cart:data:{userId} (sku -> ProductCacheEvent, chỉ bị xóa)
+-- ARGV[1] = TTL của giỏ (giây)
+-- ARGV[2..] = từng cặp (sku, giá snapshot) do Java tính từ cart:data / catalog
+--
+-- Số lượng được đọc ngay trong script: thay đổi xảy ra sau khi Java đọc giá không bị mất,
+-- và 2 request migrate cùng lúc thì request sau thấy cart:qty đã bị xóa nên không ghi đè.
+-- Trả về số dòng đã chuyển, 0 nếu giỏ đã được migrate (hoặc không còn giỏ cũ).
+
+if redis.call('EXISTS', KEYS[2]) == 0 then
+    return 0
+end
+
+local prices = {}
+for i = 2, #ARGV, 2 do
+    prices[ARGV[i]] = ARGV[i + 1]
+end
+
+local qty = redis.call('HGETALL', KEYS[2])
+local lines = 0
+for i = 1, #qty, 2 do
+    local sku = qty[i]
+    redis.call('HSET', KEYS[1], sku, string.format('%d|%s', tonumber(qty[i + 1]), prices[sku] or '0'))
+    lines = lines + 1
+end
+
+redis.call('EXPIRE', KEYS[1], ARGV[1])
+redis.call('DEL', KEYS[2], KEYS[3])
+return lines
@@ -0,0 +1,164 @@
+package com.myexampleproject.cartservice.service;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * scripts/cart-add.lua và scripts/cart-migrate.lua trên Redis thật (cùng image với docker-compose).
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class CartScriptsTest {
+
+    private static final RedisScript<Long> CART_ADD_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/cart-add.lua"), Long.class);
+    private static final RedisScript<Long> CART_MIGRATE_SCRIPT =
+            RedisScript.of(new ClassPathResource("scripts/cart-migrate.lua"), Long.class);
+
+    private static final String LINES = "cart:lines:user-1";
+    private static final String QTY = "cart:qty:user-1";
+    private static final String DATA = "cart:data:user-1";
+    private static final String TTL = "604800";
+    private static final String RENEW_BELOW = "518400";
+
+    @Container
+    static final GenericContainer<?> REDIS = new GenericContainer<>(DockerImageName.parse("redis:7-alpine"))
+            .withExposedPorts(6379);
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+
+    @BeforeAll
+    static void connect() {
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(REDIS.getHost(), REDIS.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        connectionFactory.destroy();
+    }
+
+    @BeforeEach
+    void flush() {
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+    }
+
+    @Test
+    void addWritesEveryLineAndSetsTheTtl() {
+        Long added = add("SKU-A", "2", "10.00", "SKU-B", "1", "25.50");
+
+        assertThat(added).isEqualTo(2L);
+        assertThat(lines()).containsOnly(Map.entry("SKU-A", "2|10.00"), Map.entry("SKU-B", "1|25.50"));
+        assertThat(redisTemplate.getExpire(LINES)).isPositive();
+    }
+
+    @Test
+    void addSumsQuantityAndRefreshesThePriceSnapshot() {
+        add("SKU-A", "2", "10.00");
+
+        add("SKU-A", "3", "9.50");
+
+        assertThat(lines()).containsOnly(Map.entry("SKU-A", "5|9.50"));
+    }
+
+    @Test
+    void addOnlyRenewsTheTtlBelowTheThreshold() {
+        add("SKU-A", "1", "10.00");
+        redisTemplate.expire(LINES, Duration.ofSeconds(600000));
+
+        add("SKU-A", "1", "10.00");
+
+        // Còn > RENEW_BELOW thì không gia hạn lại
+        assertThat(redisTemplate.getExpire(LINES)).isLessThanOrEqualTo(600000L);
+    }
+
+    @Test
+    void addRefusesLegacyCart() {
+        redisTemplate.opsForHash().put(QTY, "SKU-A", "1");
+
+        assertThat(add("SKU-A", "1", "10.00")).isEqualTo(-1L);
+        assertThat(redisTemplate.hasKey(LINES)).isFalse();
+    }
+
+    @Test
+    void addIgnoresLegacyCartWhenTheLegacyKeyIsNotPassed() {
+        // cart.legacy-layout.enabled=false: CartService chỉ truyền cart:lines
+        redisTemplate.opsForHash().put(QTY, "SKU-A", "1");
+
+        Long added = redisTemplate.execute(CART_ADD_SCRIPT, List.of(LINES), TTL, RENEW_BELOW, "SKU-A", "2", "10.00");
+
+        assertThat(added).isEqualTo(1L);
+        assertThat(lines()).containsOnly(Map.entry("SKU-A", "2|10.00"));
+        assertThat(redisTemplate.hasKey(QTY)).isTrue();
+    }
+
+    @Test
+    void migrateMovesQuantitiesWithPricesAndDropsLegacyKeys() {
+        redisTemplate.opsForHash().put(QTY, "SKU-A", "2");
+        redisTemplate.opsForHash().put(QTY, "SKU-B", "1");
+        redisTemplate.opsForHash().put(DATA, "SKU-A", "{}");
+
+        Long migrated = migrate("SKU-A", "10.00");
+
+        assertThat(migrated).isEqualTo(2L);
+        // Không có giá snapshot thì ghi '0'
+        assertThat(lines()).containsOnly(Map.entry("SKU-A", "2|10.00"), Map.entry("SKU-B", "1|0"));
+        assertThat(redisTemplate.hasKey(QTY)).isFalse();
+        assertThat(redisTemplate.hasKey(DATA)).isFalse();
+        assertThat(redisTemplate.getExpire(LINES)).isPositive();
+
+        // Sau migrate, cart-add chạy bình thường
+        assertThat(add("SKU-A", "1", "10.00")).isEqualTo(1L);
+        assertThat(lines()).containsEntry("SKU-A", "3|10.00");
+    }
+
+    @Test
+    void migrateIsNoOpWhenAlreadyMigrated() {
+        add("SKU-A", "1", "10.00");
+
+        assertThat(migrate("SKU-A", "99.00")).isZero();
+        assertThat(lines()).containsOnly(Map.entry("SKU-A", "1|10.00"));
+    }
+
+    private static Long add(String... skuQtyPrice) {
+        Object[] args = new Object[2 + skuQtyPrice.length];
+        args[0] = TTL;
+        args[1] = RENEW_BELOW;
+        System.arraycopy(skuQtyPrice, 0, args, 2, skuQtyPrice.length);
+        return redisTemplate.execute(CART_ADD_SCRIPT, List.of(LINES, QTY), args);
+    }
+
+    private static Long migrate(String... skuPrice) {
+        Object[] args = new Object[1 + skuPrice.length];
+        args[0] = TTL;
+        System.arraycopy(skuPrice, 0, args, 1, skuPrice.length);
+        return redisTemplate.execute(CART_MIGRATE_SCRIPT, List.of(LINES, QTY, DATA), args);
+    }
+
+    private static Map<Object, Object> lines() {
+        return redisTemplate.opsForHash().entries(LINES);
+    }
+}
@@ -0,0 +1,76 @@
+package com.myexampleproject.common.security;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Enumeration;
+
+/**
+ * Chế độ trusted-gateway: nếu request có header định danh hợp lệ do gateway ký,
+ * dựng Authentication từ đó và ẩn header Authorization để BearerTokenAuthenticationFilter
+ * không verify RSA lại JWT mà gateway đã verify.
+ * Header thiếu/sai hoặc chế độ tắt: đi tiếp như bình thường (xác thực bằng Bearer token).
+ *
+ * Thêm vào chain của từng service: addFilterBefore(filter, BearerTokenAuthenticationFilter.class).
+ * Không khai báo làm @Bean để Spring Boot không đăng ký nó thêm lần nữa ở servlet filter chain.
+ */
+public class GatewayIdentityFilter extends OncePerRequestFilter {
+
+    private final GatewayIdentityVerifier verifier;
+    private final Converter<Jwt, ? extends AbstractAuthenticationToken> authenticationConverter;
+
+    public GatewayIdentityFilter(GatewayIdentityVerifier verifier,
+                                 Converter<Jwt, ? extends AbstractAuthenticationToken> authenticationConverter) {
+        this.verifier = verifier;
+        this.authenticationConverter = authenticationConverter;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return !verifier.isEnabled() || request.getHeader(GatewayIdentityVerifier.HEADER) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        Jwt identity = verifier.verify(request.getHeader(GatewayIdentityVerifier.HEADER));
+        if (identity == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+
+        SecurityContext context = SecurityContextHolder.createEmptyContext();
+        context.setAuthentication(authenticationConverter.convert(identity));
+        SecurityContextHolder.setContext(context);
+        chain.doFilter(new WithoutAuthorizationHeader(request), response);
+    }
+
+    private static class WithoutAuthorizationHeader extends HttpServletRequestWrapper {
+
+        WithoutAuthorizationHeader(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return HttpHeaders.AUTHORIZATION.equalsIgnoreCase(name) ? null : super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            return HttpHeaders.AUTHORIZATION.equalsIgnoreCase(name) ? Collections.emptyEnumeration() : super.getHeaders(name);
+        }
+    }
+}
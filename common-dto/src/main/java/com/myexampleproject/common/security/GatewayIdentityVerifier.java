@@ -0,0 +1,95 @@
+package com.myexampleproject.common.security;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimNames;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Kiểm tra header định danh do api-gateway ký (chế độ trusted-gateway).
+ * Định dạng: base64url(JSON claims) + "." + base64url(HMAC-SHA256(secret, phần claims)),
+ * với claims là tập con của JWT gateway đã verify (sub, preferred_username, realm_access, exp...).
+ * Kiểm tra HMAC rẻ hơn nhiều so với verify chữ ký RSA ở mỗi service.
+ */
+public class GatewayIdentityVerifier {
+
+    public static final String HEADER = "X-Gateway-Identity";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    private final ObjectMapper objectMapper;
+    private final boolean enabled;
+    private final SecretKeySpec key;
+
+    public GatewayIdentityVerifier(ObjectMapper objectMapper, boolean enabled, String secret) {
+        if (enabled && (secret == null || secret.length() < 32)) {
+            throw new IllegalStateException("security.trusted-gateway.secret phải có ít nhất 32 ký tự");
+        }
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.key = enabled ? new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM) : null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Trả về Jwt dựng từ claims trong header, hoặc null nếu chữ ký sai / đã hết hạn / sai định dạng.
+     */
+    public Jwt verify(String identity) {
+        int dot = identity.indexOf('.');
+        if (!enabled || dot <= 0) {
+            return null;
+        }
+        String payload = identity.substring(0, dot);
+        try {
+            byte[] signature = Base64.getUrlDecoder().decode(identity.substring(dot + 1));
+            if (!MessageDigest.isEqual(sign(payload), signature)) {
+                return null;
+            }
+            Map<String, Object> claims = objectMapper.readValue(
+                    Base64.getUrlDecoder().decode(payload), new TypeReference<Map<String, Object>>() {});
+            return toJwt(identity, claims);
+        } catch (IllegalArgumentException | java.io.IOException e) {
+            return null;
+        }
+    }
+
+    private Jwt toJwt(String identity, Map<String, Object> claims) {
+        Map<String, Object> converted = new HashMap<>(claims);
+        // exp/iat ở dạng epoch giây (như JWT), Jwt cần Instant
+        for (String name : new String[] { JwtClaimNames.EXP, JwtClaimNames.IAT }) {
+            if (claims.get(name) instanceof Number seconds) {
+                converted.put(name, Instant.ofEpochSecond(seconds.longValue()));
+            }
+        }
+        Jwt jwt = Jwt.withTokenValue(identity)
+                .header("alg", "HS256")
+                .claims(c -> c.putAll(converted))
+                .build();
+        if (jwt.getExpiresAt() == null || jwt.getExpiresAt().isBefore(Instant.now())) {
+            return null;
+        }
+        return jwt;
+    }
+
+    private byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
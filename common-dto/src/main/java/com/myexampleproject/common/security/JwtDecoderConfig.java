@@ -0,0 +1,69 @@
+package com.myexampleproject.common.security;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.cache.Cache;
+import org.springframework.cache.concurrent.ConcurrentMapCache;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.web.client.RestTemplate;
+
+import java.time.Duration;
+
+/**
+ * Cấu hình JWT dùng chung cho các service (import giống GlobalExceptionHandler):
+ * - JwtDecoder đọc JWK set trực tiếp từ security.jwt.jwk-set-uri (không OIDC discovery),
+ *   JWK set được tải sẵn lúc khởi động và giữ trong bộ nhớ; JWT đã verify được cache theo exp (CachingJwtDecoder).
+ * - GatewayIdentityVerifier cho chế độ trusted-gateway (xem GatewayIdentityFilter).
+ *
+ * Các service không cần khai báo gì thêm trong application.properties, mặc định nằm ở các @Value dưới đây:
+ * - security.jwt.claims-cache.max-size (10000), security.jwt.claims-cache.max-ttl (1h)
+ * - security.trusted-gateway.enabled (false): bật cùng lúc ở api-gateway và các service
+ * - security.trusted-gateway.secret (biến môi trường GATEWAY_IDENTITY_SECRET): giống secret của api-gateway
+ */
+@Configuration
+public class JwtDecoderConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(JwtDecoderConfig.class);
+
+    @Bean
+    public JwtDecoder jwtDecoder(
+            @Value("${spring.security.oauth2.resourceserver.jwt.issuer-uri}") String issuerUri,
+            @Value("${security.jwt.jwk-set-uri:${spring.security.oauth2.resourceserver.jwt.issuer-uri}/protocol/openid-connect/certs}") String jwkSetUri,
+            @Value("${security.jwt.claims-cache.max-size:10000}") long maxSize,
+            @Value("${security.jwt.claims-cache.max-ttl:1h}") Duration maxTtl) {
+        RestTemplate restTemplate = new RestTemplate();
+        Cache jwkSetCache = new ConcurrentMapCache("jwk-set");
+        prewarm(restTemplate, jwkSetCache, jwkSetUri);
+
+        NimbusJwtDecoder decoder = NimbusJwtDecoder.withJwkSetUri(jwkSetUri)
+                .restOperations(restTemplate)
+                .cache(jwkSetCache)
+                .build();
+        // Chỉ kiểm tra issuer + thời hạn như mặc định, không cần gọi issuer lúc khởi động
+        decoder.setJwtValidator(JwtValidators.createDefaultWithIssuer(issuerUri));
+        return new CachingJwtDecoder(decoder, maxSize, maxTtl);
+    }
+
+    @Bean
+    public GatewayIdentityVerifier gatewayIdentityVerifier(
+            ObjectMapper objectMapper,
+            @Value("${security.trusted-gateway.enabled:false}") boolean enabled,
+            @Value("${security.trusted-gateway.secret:${GATEWAY_IDENTITY_SECRET:}}") String secret) {
+        return new GatewayIdentityVerifier(objectMapper, enabled, secret);
+    }
+
+    // Keycloak chưa lên thì bỏ qua: decoder sẽ tự tải JWK set ở request đầu tiên
+    private static void prewarm(RestTemplate restTemplate, Cache jwkSetCache, String jwkSetUri) {
+        try {
+            jwkSetCache.put(jwkSetUri, restTemplate.getForObject(jwkSetUri, String.class));
+        } catch (Exception e) {
+            log.warn("Không tải trước được JWK set từ {}: {}", jwkSetUri, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.myexampleproject.common.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.myexampleproject.common.event.ProductCacheEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.kafka.annotation.KafkaListener;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache thông tin sản phẩm 2 tầng: Caffeine trong process (object ProductCacheEvent đã convert sẵn)
+ * và Redis hash "products:cache" dùng chung phía sau.
+ * Đọc 1 line item không còn tốn 1 lần HGET + convertValue, trừ khi SKU chưa có trong near-cache.
+ *
+ * Dùng chung cho order-service và cart-service: thêm vào @Import của Application (giống JwtDecoderConfig).
+ */
+@Slf4j
+public class ProductCatalogCache {
+
+    public static final String PRODUCT_CACHE_KEY = "products:cache";
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final Cache<String, ProductCacheEvent> nearCache;
+
+    public ProductCatalogCache(RedisTemplate<String, Object> redisTemplate,
+                               ObjectMapper objectMapper,
+                               MeterRegistry meterRegistry,
+                               @Value("${product.near-cache.max-size:10000}") long maxSize,
+                               @Value("${product.near-cache.ttl:10m}") Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        // TTL chỉ là lưới an toàn nếu lỡ 1 update: bình thường near-cache được cập nhật qua Kafka
+        this.nearCache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, nearCache, "product-near-cache");
+    }
+
+    /**
+     * Near-cache trước, hụt thì HGET Redis rồi giữ lại bản đã convert. Trả null nếu cả 2 tầng đều không có.
+     */
+    public ProductCacheEvent get(String skuCode) {
+        ProductCacheEvent cached = nearCache.getIfPresent(skuCode);
+        if (cached != null) {
+            return cached;
+        }
+        Object data = redisTemplate.opsForHash().get(PRODUCT_CACHE_KEY, skuCode);
+        if (data == null) {
+            return null; // Không cache kết quả rỗng: sản phẩm mới sẽ đến qua product-cache-update-topic
+        }
+        // putIfAbsent: update từ Kafka đến trong lúc đọc Redis thì giữ bản mới đó, không ghi đè bằng bản Redis cũ hơn
+        ProductCacheEvent product = objectMapper.convertValue(data, ProductCacheEvent.class);
+        ProductCacheEvent newer = nearCache.asMap().putIfAbsent(skuCode, product);
+        return newer != null ? newer : product;
+    }
+
+    /**
+     * Tra cứu nhiều SKU cùng lúc (VD: mọi dòng của cả 1 batch đơn hàng).
+     * SKU trùng chỉ tra 1 lần; các SKU hụt near-cache được lấy bằng ĐÚNG 1 lệnh HMGET.
+     * SKU không có ở cả 2 tầng sẽ không có trong Map kết quả.
+     */
+    public Map<String, ProductCacheEvent> getAll(Collection<String> skuCodes) {
+        Set<String> unique = new LinkedHashSet<>(skuCodes);
+        Map<String, ProductCacheEvent> products = new HashMap<>(nearCache.getAllPresent(unique));
+        if (products.size() == unique.size()) {
+            return products;
+        }
+
+        List<Object> missing = new ArrayList<>();
+        for (String sku : unique) {
+            if (!products.containsKey(sku)) {
+                missing.add(sku);
+            }
+        }
+        List<Object> values = redisTemplate.opsForHash().multiGet(PRODUCT_CACHE_KEY, missing);
+        for (int i = 0; i < missing.size(); i++) {
+            Object data = values.get(i);
+            if (data != null) {
+                String sku = (String) missing.get(i);
+                ProductCacheEvent product = objectMapper.convertValue(data, ProductCacheEvent.class);
+                ProductCacheEvent newer = nearCache.asMap().putIfAbsent(sku, product);
+                products.put(sku, newer != null ? newer : product);
+            }
+        }
+        return products;
+    }
+
+    /**
+     * Ghi vào Redis (dùng chung mọi instance) và near-cache của instance này.
+     */
+    public void put(ProductCacheEvent product) {
+        redisTemplate.opsForHash().put(PRODUCT_CACHE_KEY, product.getSkuCode(), product);
+        nearCache.put(product.getSkuCode(), product);
+    }
+
+    /**
+     * Mỗi instance có group riêng nên đều nhận MỌI update và tự làm mới near-cache của mình
+     * (listener ghi Redis dùng group chung nên mỗi update chỉ tới 1 instance).
+     * Group id cố định theo host + port: restart dùng lại group cũ thay vì để lại 1 group mồ côi mỗi lần.
+     * Lần đầu chỉ đọc update mới: SKU chưa có trong near-cache sẽ được nạp từ Redis khi cần.
+     */
+    @KafkaListener(
+            topics = "product-cache-update-topic",
+            groupId = "${product.near-cache.group-id:${spring.application.name}-product-near-cache-${spring.cloud.client.hostname:localhost}-${server.port:8080}}",
+            properties = "auto.offset.reset=latest"
+    )
+    public void refreshNearCache(List<ConsumerRecord<String, Object>> records) {
+        for (ConsumerRecord<String, Object> record : records) {
+            try {
+                ProductCacheEvent product = objectMapper.convertValue(record.value(), ProductCacheEvent.class);
+                nearCache.put(product.getSkuCode(), product);
+            } catch (Exception e) {
+                // Không chắc giá trị mới -> bỏ bản cũ, lần đọc sau sẽ lấy từ Redis
+                if (record.key() != null) {
+                    nearCache.invalidate(record.key());
+                }
+                log.error("NEAR-CACHE: lỗi khi cập nhật product {}: {}", record.key(), e.getMessage());
+            }
+        }
+    }
+}
@@ -14,4 +14,8 @@ public class InventoryAdjustmentEvent {
     // Số lượng điều chỉnh, có thể là +10 (thêm) hoặc -5 (giảm)
     private int adjustmentQuantity;
     private String reason; // (Ghi chú: "Admin nhập kho", "Hàng hỏng"...)
+    // Thay đổi phần hàng đang giữ (reserved) cho đơn chưa thanh toán, VD: hoàn hold = -5
+    private int reservedAdjustment;
+    // Gắn bởi InventoryController.adjustInventory để biết khi nào adjustment đã vào store
+    private String correlationId;
 }
@@ -0,0 +1,17 @@
+package com.myexampleproject.common.event;
+
+import com.myexampleproject.common.dto.OrderLineItemRequest;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Yêu cầu giữ kho cho CẢ đơn hàng (key = orderNumber), thay cho 1 InventoryCheckRequest / dòng
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class InventoryReservationRequest {
+    private String orderNumber;
+    private List<OrderLineItemRequest> items;
+}
@@ -0,0 +1,19 @@
+package com.myexampleproject.common.event;
+
+import com.myexampleproject.common.dto.OrderLineItemRequest;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+// Kết quả giữ kho của cả đơn: success = true khi TẤT CẢ các dòng đều đủ hàng
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class InventoryReservationResult {
+    private String orderNumber;
+    private List<OrderLineItemRequest> items;
+    private boolean success;
+    private String reason;
+}
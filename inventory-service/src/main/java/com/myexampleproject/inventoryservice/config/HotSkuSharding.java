@@ -0,0 +1,81 @@
+package com.myexampleproject.inventoryservice.config;
+
+import org.apache.kafka.streams.KeyValue;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Chia tồn kho của các SKU "hot" (flash sale) thành N bucket "SKU#0".."SKU#N-1" trong inventory-store.
+ * Mỗi bucket là 1 key riêng nên nằm ở partition / stream task khác nhau,
+ * giúp 1 SKU không bị giới hạn bởi 1 stream thread.
+ */
+@Component
+public class HotSkuSharding {
+
+    public static final String BUCKET_SEPARATOR = "#";
+
+    @Value("${inventory.hot-skus:}")
+    private Set<String> hotSkus;
+
+    @Value("${inventory.hot-sku.buckets:4}")
+    private int buckets;
+
+    public boolean isEnabled() {
+        return !hotSkus.isEmpty() && buckets > 1;
+    }
+
+    // Chỉ SKU gốc mới là hot, key bucket ("SKU#2") thì không
+    public boolean isHot(String sku) {
+        return isEnabled() && sku != null && hotSkus.contains(sku);
+    }
+
+    public int getBuckets() {
+        return buckets;
+    }
+
+    public String bucketKey(String sku, int bucket) {
+        return sku + BUCKET_SEPARATOR + bucket;
+    }
+
+    public List<String> bucketKeys(String sku) {
+        List<String> keys = new ArrayList<>(buckets);
+        for (int b = 0; b < buckets; b++) {
+            keys.add(bucketKey(sku, b));
+        }
+        return keys;
+    }
+
+    // Bucket bắt đầu của 1 đơn: rải đều các đơn lên các bucket
+    public int startBucket(String orderNumber) {
+        return Math.floorMod(orderNumber.hashCode(), buckets);
+    }
+
+    /**
+     * Tách 1 thay đổi tồn kho thành các delta StockLevel theo key trong inventory-store.
+     * SKU thường (hoặc key bucket cụ thể) giữ nguyên; SKU hot được chia đều cho các bucket.
+     */
+    public List<KeyValue<String, Long>> split(String sku, int stockChange, int reservedChange) {
+        if (!isHot(sku)) {
+            return List.of(KeyValue.pair(sku, StockLevel.of(stockChange, reservedChange)));
+        }
+        List<KeyValue<String, Long>> parts = new ArrayList<>(buckets);
+        for (int b = 0; b < buckets; b++) {
+            int stockPart = share(stockChange, b);
+            int reservedPart = share(reservedChange, b);
+            if (stockPart != 0 || reservedPart != 0) {
+                parts.add(KeyValue.pair(bucketKey(sku, b), StockLevel.of(stockPart, reservedPart)));
+            }
+        }
+        return parts;
+    }
+
+    // Phần của bucket b khi chia đều change, phần dư dồn cho các bucket đầu
+    private int share(int change, int bucket) {
+        int remainder = change % buckets;   // Cùng dấu với change
+        return change / buckets + (bucket < Math.abs(remainder) ? Integer.signum(remainder) : 0);
+    }
+}
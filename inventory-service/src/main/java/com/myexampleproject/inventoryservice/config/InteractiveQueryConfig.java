@@ -0,0 +1,47 @@
+package com.myexampleproject.inventoryservice.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+
+/**
+ * HTTP client để đọc inventory-store ở instance khác (key thuộc partition mà instance đó đang giữ)
+ * và chuyển adjustment sang instance sở hữu SKU.
+ */
+@Configuration
+public class InteractiveQueryConfig {
+
+    @Value("${inventory.query.timeout:2s}")
+    private Duration queryTimeout;
+
+    // Secret dùng chung giữa các instance, endpoint /internal/** từ chối request không có
+    @Value("${inventory.internal.secret:}")
+    private String internalSecret;
+
+    @Bean
+    public RestClient inventoryQueryRestClient(RestClient.Builder builder) {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(queryTimeout);
+        requestFactory.setReadTimeout(queryTimeout);
+        return builder.requestFactory(requestFactory)
+                .defaultHeader(InternalRequestFilter.HEADER, internalSecret)
+                .build();
+    }
+
+    // Chuyển adjustment sang instance sở hữu SKU: instance đó có thể chờ tới inventory.adjust.timeout
+    // trước khi trả lời, nên read timeout phải dài hơn
+    @Bean
+    public RestClient inventoryAdjustRestClient(RestClient.Builder builder,
+                                                @Value("${inventory.adjust.timeout:10s}") Duration adjustTimeout) {
+        SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(queryTimeout);
+        requestFactory.setReadTimeout(adjustTimeout.plus(queryTimeout));
+        return builder.requestFactory(requestFactory)
+                .defaultHeader(InternalRequestFilter.HEADER, internalSecret)
+                .build();
+    }
+}
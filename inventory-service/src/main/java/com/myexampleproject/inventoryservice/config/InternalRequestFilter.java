@@ -0,0 +1,54 @@
+package com.myexampleproject.inventoryservice.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.core.context.SecurityContext;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+
+/**
+ * Xác thực request giữa các instance inventory-service (/internal/inventory/**) bằng secret dùng chung
+ * trong header X-Internal-Token. Đúng secret -> Authentication với ROLE_INTERNAL.
+ * Secret rỗng: không request nội bộ nào được chấp nhận (chỉ chạy được 1 instance).
+ *
+ * Thêm vào chain như GatewayIdentityFilter, không khai báo làm @Bean.
+ */
+public class InternalRequestFilter extends OncePerRequestFilter {
+
+    public static final String HEADER = "X-Internal-Token";
+    public static final String ROLE = "INTERNAL";
+    private static final String PATH_PREFIX = "/internal/";
+
+    private final byte[] secret;
+
+    public InternalRequestFilter(String secret) {
+        this.secret = secret == null || secret.isBlank() ? null : secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return secret == null || !request.getRequestURI().startsWith(PATH_PREFIX) || request.getHeader(HEADER) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        byte[] token = request.getHeader(HEADER).getBytes(StandardCharsets.UTF_8);
+        if (MessageDigest.isEqual(secret, token)) {
+            SecurityContext context = SecurityContextHolder.createEmptyContext();
+            context.setAuthentication(new UsernamePasswordAuthenticationToken(
+                    "inventory-peer", null, List.of(new SimpleGrantedAuthority("ROLE_" + ROLE))));
+            SecurityContextHolder.setContext(context);
+        }
+        chain.doFilter(request, response);
+    }
+}
@@ -3,18 +3,35 @@ package com.myexampleproject.inventoryservice.config;
 import com.myexampleproject.common.dto.OrderLineItemRequest;
 import com.myexampleproject.common.dto.OrderLineItemsDto;
 import com.myexampleproject.common.event.*;
+import com.myexampleproject.inventoryservice.service.AdjustmentCompletionRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.header.Header;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.Serde;
 import org.apache.kafka.common.serialization.Serdes;
 import org.apache.kafka.common.utils.Bytes;
 import org.apache.kafka.streams.KeyValue;
 import org.apache.kafka.streams.StreamsBuilder;
 import org.apache.kafka.streams.kstream.*;
 import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.PunctuationType;
+import org.apache.kafka.streams.processor.api.ContextualFixedKeyProcessor;
+import org.apache.kafka.streams.processor.api.ContextualProcessor;
+import org.apache.kafka.streams.processor.api.FixedKeyRecord;
+import org.apache.kafka.streams.processor.api.Record;
+import org.apache.kafka.streams.state.KeyValueIterator;
 import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.state.Stores;
+import org.apache.kafka.streams.state.TimestampedKeyValueStore;
 import org.apache.kafka.streams.state.ValueAndTimestamp; // <-- THÊM IMPORT NÀY
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 // Thêm các import này
@@ -22,6 +39,11 @@ import io.micrometer.core.instrument.MeterRegistry;
 import io.micrometer.core.instrument.Tags;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 @Slf4j
@@ -30,8 +52,22 @@ import java.util.Map;
 public class InventoryTopology {
 
     public static final String INVENTORY_STORE = "inventory-store";
+    public static final String RESERVATION_ORDER_STORE = "reservation-order-store";
+    public static final String RESERVATION_HOLD_STORE = "reservation-hold-store";
+    private static final Duration HOLD_SWEEP_INTERVAL = Duration.ofSeconds(30);
+    public static final String HOT_SKU_HOP_TOPIC = "inventory-hot-sku-hop-topic";
+    public static final String CORRELATION_HEADER = "inventory-correlation-id";
+
+    // Bật hold: payment-failed / order-failed / hết hạn được hoàn kho ngay trong topology
+    @Value("${inventory.reservation.holds.enabled:false}")
+    private boolean holdsEnabled;
+
+    @Value("${inventory.reservation.hold-ttl:15m}")
+    private Duration holdTtl;
 
     private final SerdeConfig serdeConfig;
+    private final HotSkuSharding hotSkuSharding;
+    private final AdjustmentCompletionRegistry adjustmentCompletionRegistry;
 
     // 1. INJECT METER REGISTRY (Lombok sẽ tự tạo constructor cho final field này)
     private final MeterRegistry meterRegistry;
@@ -59,7 +95,7 @@ public class InventoryTopology {
     public void buildTopology(StreamsBuilder builder) {
 
         var stringSerde = Serdes.String();
-        var intSerde = Serdes.Integer();
+        var stockLevelSerde = new StockLevel.StockLevelSerde();
 
         var productSerde = serdeConfig.jsonSchemaSerde(ProductCreatedEvent.class);
         var adjustSerde = serdeConfig.jsonSchemaSerde(InventoryAdjustmentEvent.class);
@@ -71,91 +107,669 @@ public class InventoryTopology {
         // (Không thay đổi)
         // ==========================================================
 
-        KStream<String, Integer> productStream = builder
+        // Mọi thay đổi kho là delta (stock, reserved) gói trong 1 long (xem StockLevel)
+        KStream<String, Long> productStream = builder
                 .stream("product-created-topic", Consumed.with(stringSerde, productSerde))
-                .map((key, event) -> KeyValue.pair(event.getSkuCode(), Math.max(0, event.getInitialQuantity())))
-                .repartition(Repartitioned.with(stringSerde, intSerde).withName("product-repartition-by-sku"));
+                // SKU hot: chia tồn kho ban đầu cho các bucket
+                .flatMap((key, event) -> hotSkuSharding.split(event.getSkuCode(), Math.max(0, event.getInitialQuantity()), 0))
+                .repartition(Repartitioned.with(stringSerde, stockLevelSerde).withName("product-repartition-by-sku"));
 
-        KStream<String, Integer> adjustStream = builder
+        KStream<String, Long> adjustStream = builder
                 .stream("inventory-adjustment-topic", Consumed.with(stringSerde, adjustSerde))
-                .mapValues(InventoryAdjustmentEvent::getAdjustmentQuantity)
-                .repartition(Repartitioned.with(stringSerde, intSerde).withName("adjust-repartition-by-sku"));
+                // correlationId đi theo header vì delta 8 byte không chứa được nó
+                .processValues(CorrelationHeaderProcessor::new)
+                .flatMap((key, event) -> hotSkuSharding.split(
+                        event.getSkuCode(), event.getAdjustmentQuantity(), event.getReservedAdjustment()))
+                .repartition(Repartitioned.with(stringSerde, stockLevelSerde).withName("adjust-repartition-by-sku"));
         // Hợp nhất luồng tạo sản phẩm và luồng điều chỉnh kho
-        KStream<String, Integer> inventoryChanges = productStream.merge(adjustStream);
+        KStream<String, Long> inventoryChanges = productStream.merge(adjustStream);
         inventoryChanges
-                .groupByKey(Grouped.with(stringSerde, intSerde))
+                .groupByKey(Grouped.with(stringSerde, stockLevelSerde))
                 .aggregate(
-                        () -> 0,
-                        (sku, change, currentStock) -> {
+                        () -> StockLevel.EMPTY,
+                        (sku, change, current) -> {
                             // Logic nghiệp vụ: Tính toán tồn kho mới
-                            long newStock = (long) currentStock + change;
-                            int finalStock = (int) Math.max(0, Math.min(newStock, Integer.MAX_VALUE));
-                            log.info("AGGREGATE STOCK → {} ({} + {}) = {}", sku, currentStock, change, finalStock);
-                            return finalStock;
+                            long updated = StockLevel.apply(current, change);
+                            if (log.isInfoEnabled()) {
+                                log.info("AGGREGATE STOCK → {} {} + {} = {}", sku, StockLevel.toString(current),
+                                        StockLevel.toString(change), StockLevel.toString(updated));
+                            }
+                            return updated;
                         },
                         // Lưu kết quả vào State Store cục bộ (RocksDB) để truy xuất nhanh
-                        Materialized.<String, Integer, KeyValueStore<Bytes, byte[]>>as(INVENTORY_STORE)
+                        Materialized.<String, Long, KeyValueStore<Bytes, byte[]>>as(INVENTORY_STORE)
                                 .withKeySerde(stringSerde)
-                                .withValueSerde(intSerde) // <-- Value là Integer
+                                .withValueSerde(stockLevelSerde) // <-- Value là (stock, reserved) 8 byte
                 );
 
+        // Báo cho request HTTP đang chờ (InventoryController.adjustInventory) giá trị sau khi cộng.
+        // Node này được thêm SAU aggregate nên Kafka Streams chuyển record cho nó sau khi aggregate đã ghi store.
+        adjustStream.process(AdjustmentCompletionProcessor::new, INVENTORY_STORE);
+
         // ==========================================================
         // BUILDER B: Xử lý Đơn hàng (SAGA)
         // (SỬA LẠI CHO ĐÚNG)
         // ==========================================================
 
-        builder.stream("inventory-check-request-topic", Consumed.with(stringSerde, checkRequestSerde))
-                .transform(
-                        () -> new Transformer<String, InventoryCheckRequest, KeyValue<String, InventoryCheckResult>>() {
+        KStream<String, InventoryCheckRequest> checkRequests = builder
+                .stream("inventory-check-request-topic", Consumed.with(stringSerde, checkRequestSerde));
 
-                            // SỬA 1: Store phải là <String, ValueAndTimestamp<Integer>>
-                            private KeyValueStore<String, ValueAndTimestamp<Integer>> store;
-                            private ProcessorContext context;
+        checkRequests
+                .filterNot((skuCode, request) -> hotSkuSharding.isHot(skuCode))
+                .transform(StockReservationTransformer::new, INVENTORY_STORE)
+                .to("inventory-check-result-topic", Produced.with(stringSerde, checkResultSerde));
 
-                            @Override
-                            public void init(ProcessorContext context) {
-                                this.context = context;
-                                // Kafka tự động cast về đúng kiểu
-                                this.store = context.getStateStore(INVENTORY_STORE);
-                            }
+        // ==========================================================
+        // BUILDER C: Giữ kho cho CẢ đơn hàng (1 request / 1 result mỗi đơn)
+        // ==========================================================
+        // Tồn kho nằm theo partition của SKU nên vẫn phải tách dòng bên trong topology,
+        // nhưng việc tách / gom lại chỉ đi qua topic nội bộ. Các dòng đã trừ kho của 1 đơn lỗi
+        // được hoàn lại qua inventory-adjustment-topic trong cùng transaction (EOS).
+        var reservationRequestSerde = serdeConfig.jsonSchemaSerde(InventoryReservationRequest.class);
+        var reservationResultSerde = serdeConfig.jsonSchemaSerde(InventoryReservationResult.class);
+        var reservationStateSerde = serdeConfig.jsonSchemaSerde(OrderReservationState.class);
 
-                            @Override
-                            public KeyValue<String, InventoryCheckResult> transform(String skuCode, InventoryCheckRequest request) {
-                                OrderLineItemRequest item = request.getItem();
-                                String orderNumber = request.getOrderNumber();
-                                String reason = null;
-                                boolean success = false;
-                                ValueAndTimestamp<Integer> stockWithTimestamp = store.get(skuCode);
-                                Integer currentStock = (stockWithTimestamp != null) ? stockWithTimestamp.value() : 0;
-                                if (currentStock == null) currentStock = 0;
-                                if (currentStock < item.getQuantity()) {
-                                    reason = "Not enough stock for " + skuCode + " (need " + item.getQuantity() + ", have " + currentStock + ")";
-                                    log.warn("INVENTORY CHECK FAILED → Order {}: {}", orderNumber, reason);
-                                    success = false;
-                                } else {
-                                    int newStock = currentStock - item.getQuantity();
-                                    store.put(skuCode, ValueAndTimestamp.make(newStock, context.timestamp()));
-                                    //gọi hàm cập nhật Metrics
-                                    updateStockMetric(skuCode, newStock);
-                                    log.info("INVENTORY COMMIT (SAGA) → {} ({} → {})", skuCode, currentStock, newStock);
-                                    success = true;
-                                }
-                                // Gửi kết quả (key=orderNumber)
-                                return KeyValue.pair(
-                                        orderNumber,
-                                        new InventoryCheckResult(orderNumber, item, success, reason)
-                                );
-                            }
+        builder.addStateStore(Stores.keyValueStoreBuilder(
+                Stores.persistentKeyValueStore(RESERVATION_ORDER_STORE), stringSerde, reservationStateSerde));
 
+        KStream<String, InventoryCheckRequest> reservationLines = builder
+                .stream("inventory-reservation-request-topic", Consumed.with(stringSerde, reservationRequestSerde))
+                // 1. Ghi nhận đơn (key = orderNumber) rồi tách thành từng dòng theo SKU
+                .flatTransform(ReservationSplitTransformer::new, RESERVATION_ORDER_STORE)
+                .repartition(Repartitioned.with(stringSerde, checkRequestSerde).withName("reservation-line-by-sku"));
 
+        // 2. Trừ kho từng dòng, y hệt luồng inventory-check-request-topic
+        KStream<String, InventoryCheckResult> reservationLineResults = reservationLines
+                .filterNot((skuCode, request) -> hotSkuSharding.isHot(skuCode))
+                .transform(StockReservationTransformer::new, INVENTORY_STORE);
 
-                            @Override
-                            public void close() {}
-                        },
-                        INVENTORY_STORE
-                )
-                .to("inventory-check-result-topic", Produced.with(stringSerde, checkResultSerde));
+        // SKU hot (của cả 2 luồng B và C) đi qua các bucket
+        if (hotSkuSharding.isEnabled()) {
+            reservationLineResults = reservationLineResults.merge(
+                    buildHotSkuTopology(builder, checkRequests, reservationLines, stringSerde, checkResultSerde, adjustSerde));
+        }
+
+        KStream<String, OrderReservationState> completedReservations = reservationLineResults
+                .repartition(Repartitioned.with(stringSerde, checkResultSerde)
+                        .withName("reservation-line-result-by-order")
+                        // Co-partition với inventory-reservation-request-topic (cùng reservation-order-store)
+                        .withNumberOfPartitions(KafkaTopicConfig.NUM_PARTITIONS))
+                // 3. Gom kết quả theo đơn, chỉ emit khi đã đủ mọi dòng
+                .transform(ReservationAggregateTransformer::new, RESERVATION_ORDER_STORE);
+
+        completedReservations
+                .mapValues(state -> new InventoryReservationResult(
+                        state.getOrderNumber(), state.getItems(), state.getFailureReason() == null, state.getFailureReason()))
+                .to("inventory-reservation-result-topic", Produced.with(stringSerde, reservationResultSerde));
+
+        // 4. Đơn lỗi: hoàn lại các dòng đã trừ kho
+        completedReservations
+                .filter((orderNumber, state) -> state.getFailureReason() != null)
+                .flatMap((orderNumber, state) -> state.getReserved().stream()
+                        .map(item -> KeyValue.pair(item.getSkuCode(), InventoryAdjustmentEvent.builder()
+                                .skuCode(item.getSkuCode())
+                                .adjustmentQuantity(item.getQuantity())
+                                .reservedAdjustment(holdsEnabled ? -item.getQuantity() : 0)
+                                .reason("RESERVATION_ROLLBACK: " + orderNumber)
+                                .build()))
+                        .toList())
+                .to("inventory-adjustment-topic", Produced.with(stringSerde, adjustSerde));
+
+        // ==========================================================
+        // BUILDER D: Giữ hàng (hold) theo đơn, có TTL
+        // ==========================================================
+        // Kho đã bị trừ lúc giữ hàng; hold ghi nhận các dòng đang giữ cho đơn.
+        // payment-processed -> xác nhận (xóa hold), payment-failed / order-failed / hết hạn -> hoàn kho.
+        // Mọi topic nguồn đều key theo orderNumber, cùng số partition nên dùng chung 1 store.
+        if (holdsEnabled) {
+            buildHoldTopology(builder, stringSerde, checkResultSerde, adjustSerde);
+        }
 
         log.info("=== INVENTORY TOPOLOGY (SAGA - Repartitioned - TS Fixed) LOADED OK ===");
     }
-}
\ No newline at end of file
+
+    /**
+     * Request của SKU hot bắt đầu ở 1 bucket (theo orderNumber) và lấy phần tồn kho bucket đó có.
+     * Còn thiếu thì chuyển qua bucket kế tiếp (qua inventory-hot-sku-hop-topic) cho tới khi đủ,
+     * hoặc đã đi hết N bucket -> FAILED và trả lại phần đã lấy.
+     * Trả về kết quả của các dòng thuộc luồng giữ kho cả đơn (BUILDER C).
+     */
+    private KStream<String, InventoryCheckResult> buildHotSkuTopology(StreamsBuilder builder,
+                                                                      KStream<String, InventoryCheckRequest> checkRequests,
+                                                                      KStream<String, InventoryCheckRequest> reservationLines,
+                                                                      Serde<String> stringSerde,
+                                                                      Serde<InventoryCheckResult> checkResultSerde,
+                                                                      Serde<InventoryAdjustmentEvent> adjustSerde) {
+        var hotSerde = serdeConfig.jsonSchemaSerde(HotSkuReservation.class);
+
+        // 1. Vào bucket bắt đầu
+        checkRequests
+                .filter((skuCode, request) -> hotSkuSharding.isHot(skuCode))
+                .map((skuCode, request) -> startHotSkuReservation(request, HotSkuReservation.ORIGIN_CHECK))
+                .merge(reservationLines
+                        .filter((skuCode, request) -> hotSkuSharding.isHot(skuCode))
+                        .map((skuCode, request) -> startHotSkuReservation(request, HotSkuReservation.ORIGIN_RESERVATION)))
+                .to(HOT_SKU_HOP_TOPIC, Produced.with(stringSerde, hotSerde));
+
+        // 2. Lấy hàng ở bucket hiện tại, chưa đủ thì sang bucket kế
+        KStream<String, HotSkuReservation> hops = builder
+                .stream(HOT_SKU_HOP_TOPIC, Consumed.with(stringSerde, hotSerde))
+                .transform(HotSkuBucketTransformer::new, INVENTORY_STORE);
+
+        hops.filterNot((key, reservation) -> reservation.isDone())
+                .to(HOT_SKU_HOP_TOPIC, Produced.with(stringSerde, hotSerde));
+
+        KStream<String, HotSkuReservation> finished = hops.filter((orderNumber, reservation) -> reservation.isDone());
+
+        // 3. Không đủ hàng: trả lại đúng bucket đã lấy
+        finished.filterNot((orderNumber, reservation) -> reservation.isSuccess())
+                .flatMap((orderNumber, reservation) -> reservation.getTaken().entrySet().stream()
+                        .map(taken -> KeyValue.pair(taken.getKey(), InventoryAdjustmentEvent.builder()
+                                .skuCode(taken.getKey())
+                                .adjustmentQuantity(taken.getValue())
+                                .reservedAdjustment(holdsEnabled ? -taken.getValue() : 0)
+                                .reason("HOT_SKU_ROLLBACK: " + orderNumber)
+                                .build()))
+                        .toList())
+                .to("inventory-adjustment-topic", Produced.with(stringSerde, adjustSerde));
+
+        finished.filter((orderNumber, reservation) -> HotSkuReservation.ORIGIN_CHECK.equals(reservation.getOrigin()))
+                .mapValues(HotSkuReservation::toResult)
+                .to("inventory-check-result-topic", Produced.with(stringSerde, checkResultSerde));
+
+        return finished
+                .filter((orderNumber, reservation) -> HotSkuReservation.ORIGIN_RESERVATION.equals(reservation.getOrigin()))
+                .mapValues(HotSkuReservation::toResult);
+    }
+
+    private KeyValue<String, HotSkuReservation> startHotSkuReservation(InventoryCheckRequest request, String origin) {
+        String skuCode = request.getItem().getSkuCode();
+        int bucket = hotSkuSharding.startBucket(request.getOrderNumber());
+        HotSkuReservation reservation = new HotSkuReservation(
+                request, origin, bucket, 0, request.getItem().getQuantity(), new LinkedHashMap<>(), false, false, null);
+        return KeyValue.pair(hotSkuSharding.bucketKey(skuCode, bucket), reservation);
+    }
+
+    private void buildHoldTopology(StreamsBuilder builder,
+                                   Serde<String> stringSerde,
+                                   Serde<InventoryCheckResult> checkResultSerde,
+                                   Serde<InventoryAdjustmentEvent> adjustSerde) {
+        var reservationResultSerde = serdeConfig.jsonSchemaSerde(InventoryReservationResult.class);
+        var paymentProcessedSerde = serdeConfig.jsonSchemaSerde(PaymentProcessedEvent.class);
+        var paymentFailedSerde = serdeConfig.jsonSchemaSerde(PaymentFailedEvent.class);
+        var orderFailedSerde = serdeConfig.jsonSchemaSerde(OrderFailedEvent.class);
+
+        builder.addStateStore(Stores.keyValueStoreBuilder(
+                Stores.persistentKeyValueStore(RESERVATION_HOLD_STORE), stringSerde,
+                serdeConfig.jsonSchemaSerde(ReservationHold.class)));
+
+        // Dòng giữ kho thành công (per-line) hoặc cả đơn giữ kho thành công (order mode)
+        KStream<String, HoldCommand> lineHolds = builder
+                .stream("inventory-check-result-topic", Consumed.with(stringSerde, checkResultSerde))
+                .filter((orderNumber, result) -> result != null && result.isSuccess())
+                .mapValues(result -> HoldCommand.hold(result.getOrderNumber(), List.of(result.getItem())));
+
+        KStream<String, HoldCommand> orderHolds = builder
+                .stream("inventory-reservation-result-topic", Consumed.with(stringSerde, reservationResultSerde))
+                .filter((orderNumber, result) -> result != null && result.isSuccess())
+                .mapValues(result -> HoldCommand.hold(result.getOrderNumber(), result.getItems()));
+
+        KStream<String, HoldCommand> confirms = builder
+                .stream("payment-processed-topic", Consumed.with(stringSerde, paymentProcessedSerde))
+                .filter((orderNumber, event) -> event != null)
+                .mapValues(event -> HoldCommand.confirm(event.getOrderNumber()));
+
+        KStream<String, HoldCommand> paymentReleases = builder
+                .stream("payment-failed-topic", Consumed.with(stringSerde, paymentFailedSerde))
+                .filter((orderNumber, event) -> event != null)
+                .mapValues(event -> HoldCommand.release(event.getOrderNumber(), "Payment Failed"));
+
+        KStream<String, HoldCommand> orderReleases = builder
+                .stream("order-failed-topic", Consumed.with(stringSerde, orderFailedSerde))
+                .filter((orderNumber, event) -> event != null)
+                .mapValues(event -> HoldCommand.release(event.getOrderNumber(), "Order Failed"));
+
+        lineHolds.merge(orderHolds)
+                .merge(confirms)
+                .merge(paymentReleases)
+                .merge(orderReleases)
+                .flatTransform(() -> new ReservationHoldTransformer(holdTtl), RESERVATION_HOLD_STORE)
+                .to("inventory-adjustment-topic", Produced.with(stringSerde, adjustSerde));
+    }
+
+    // Hàng đã bán: chỉ bỏ khỏi reserved, stock giữ nguyên
+    private static List<KeyValue<String, InventoryAdjustmentEvent>> toConfirmEvents(String orderNumber,
+                                                                                    List<OrderLineItemRequest> items) {
+        return items.stream()
+                .map(item -> KeyValue.pair(item.getSkuCode(), InventoryAdjustmentEvent.builder()
+                        .skuCode(item.getSkuCode())
+                        .adjustmentQuantity(0)
+                        .reservedAdjustment(-item.getQuantity())
+                        .reason("HOLD_CONFIRM: Order " + orderNumber)
+                        .build()))
+                .toList();
+    }
+
+    private static List<KeyValue<String, InventoryAdjustmentEvent>> toReleaseEvents(String orderNumber,
+                                                                                    List<OrderLineItemRequest> items,
+                                                                                    String reason) {
+        return items.stream()
+                .map(item -> KeyValue.pair(item.getSkuCode(), InventoryAdjustmentEvent.builder()
+                        .skuCode(item.getSkuCode())
+                        .adjustmentQuantity(item.getQuantity()) // Số dương: Cộng lại vào kho
+                        .reservedAdjustment(-item.getQuantity())
+                        .reason("HOLD_RELEASE: " + reason + " for Order " + orderNumber)
+                        .build()))
+                .toList();
+    }
+
+    /**
+     * Trừ kho cho 1 dòng (key = SKU), trả về kết quả key = orderNumber.
+     */
+    private class StockReservationTransformer implements Transformer<String, InventoryCheckRequest, KeyValue<String, InventoryCheckResult>> {
+
+        // Store phải là <String, ValueAndTimestamp<Long>> (Long = StockLevel)
+        private KeyValueStore<String, ValueAndTimestamp<Long>> store;
+        private ProcessorContext context;
+
+        @Override
+        public void init(ProcessorContext context) {
+            this.context = context;
+            // Kafka tự động cast về đúng kiểu
+            this.store = context.getStateStore(INVENTORY_STORE);
+        }
+
+        @Override
+        public KeyValue<String, InventoryCheckResult> transform(String skuCode, InventoryCheckRequest request) {
+            OrderLineItemRequest item = request.getItem();
+            String orderNumber = request.getOrderNumber();
+            String reason = null;
+            boolean success = false;
+            ValueAndTimestamp<Long> levelWithTimestamp = store.get(skuCode);
+            long level = (levelWithTimestamp != null && levelWithTimestamp.value() != null)
+                    ? levelWithTimestamp.value() : StockLevel.EMPTY;
+            int currentStock = StockLevel.stock(level);
+            if (currentStock < item.getQuantity()) {
+                reason = "Not enough stock for " + skuCode + " (need " + item.getQuantity() + ", have " + currentStock + ")";
+                log.warn("INVENTORY CHECK FAILED → Order {}: {}", orderNumber, reason);
+                success = false;
+            } else if (holdsEnabled && !StockLevel.canReserve(level, item.getQuantity())) {
+                reason = "Cannot reserve " + item.getQuantity() + " of " + skuCode + " " + StockLevel.toString(level);
+                log.warn("INVENTORY CHECK FAILED → Order {}: {}", orderNumber, reason);
+                success = false;
+            } else {
+                // Chỉ tính vào reserved khi có hold (được xác nhận / hoàn lại sau đó)
+                long updated = holdsEnabled
+                        ? StockLevel.reserve(level, item.getQuantity())
+                        : level - StockLevel.stockDelta(item.getQuantity());
+                int newStock = StockLevel.stock(updated);
+                store.put(skuCode, ValueAndTimestamp.make(updated, context.timestamp()));
+                //gọi hàm cập nhật Metrics
+                updateStockMetric(skuCode, newStock);
+                log.info("INVENTORY COMMIT (SAGA) → {} ({} → {})", skuCode, currentStock, newStock);
+                success = true;
+            }
+            // Gửi kết quả (key=orderNumber)
+            return KeyValue.pair(
+                    orderNumber,
+                    new InventoryCheckResult(orderNumber, item, success, reason)
+            );
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    /**
+     * Chép correlationId của InventoryAdjustmentEvent vào header để nó đi qua adjust-repartition-by-sku.
+     */
+    private static class CorrelationHeaderProcessor
+            extends ContextualFixedKeyProcessor<String, InventoryAdjustmentEvent, InventoryAdjustmentEvent> {
+
+        @Override
+        public void process(FixedKeyRecord<String, InventoryAdjustmentEvent> record) {
+            InventoryAdjustmentEvent event = record.value();
+            if (event != null && event.getCorrelationId() != null) {
+                Headers headers = new RecordHeaders(record.headers().toArray());
+                headers.remove(CORRELATION_HEADER);
+                headers.add(CORRELATION_HEADER, event.getCorrelationId().getBytes(StandardCharsets.UTF_8));
+                context().forward(record.withHeaders(headers));
+            } else {
+                context().forward(record);
+            }
+        }
+    }
+
+    /**
+     * Đọc giá trị vừa được aggregate ghi và hoàn tất future trong AdjustmentCompletionRegistry (nếu request ở instance này).
+     */
+    private class AdjustmentCompletionProcessor extends ContextualProcessor<String, Long, Void, Void> {
+
+        private TimestampedKeyValueStore<String, Long> store;
+
+        @Override
+        public void init(org.apache.kafka.streams.processor.api.ProcessorContext<Void, Void> context) {
+            super.init(context);
+            this.store = context.getStateStore(INVENTORY_STORE);
+        }
+
+        @Override
+        public void process(Record<String, Long> record) {
+            Header header = record.headers().lastHeader(CORRELATION_HEADER);
+            if (header == null) {
+                return;
+            }
+            ValueAndTimestamp<Long> level = store.get(record.key());
+            int newStock = (level != null && level.value() != null) ? StockLevel.stock(level.value()) : 0;
+            adjustmentCompletionRegistry.complete(new String(header.value(), StandardCharsets.UTF_8), newStock);
+        }
+    }
+
+    /**
+     * Lấy tồn kho của 1 bucket SKU hot (key = "SKU#b").
+     * Trả về key = orderNumber khi đã xong (đủ hàng hoặc hết bucket), ngược lại key = bucket kế tiếp.
+     */
+    private class HotSkuBucketTransformer implements Transformer<String, HotSkuReservation, KeyValue<String, HotSkuReservation>> {
+
+        private KeyValueStore<String, ValueAndTimestamp<Long>> store;
+        private ProcessorContext context;
+
+        @Override
+        public void init(ProcessorContext context) {
+            this.context = context;
+            this.store = context.getStateStore(INVENTORY_STORE);
+        }
+
+        @Override
+        public KeyValue<String, HotSkuReservation> transform(String bucketKey, HotSkuReservation reservation) {
+            InventoryCheckRequest request = reservation.getRequest();
+            String orderNumber = request.getOrderNumber();
+            String skuCode = request.getItem().getSkuCode();
+
+            ValueAndTimestamp<Long> levelWithTimestamp = store.get(bucketKey);
+            long level = (levelWithTimestamp != null && levelWithTimestamp.value() != null)
+                    ? levelWithTimestamp.value() : StockLevel.EMPTY;
+            int take = Math.min(StockLevel.stock(level), reservation.getRemaining());
+            if (holdsEnabled) {
+                // Không để reserved của bucket tràn int
+                take = (int) Math.min(take, (long) Integer.MAX_VALUE - StockLevel.reserved(level));
+            }
+            if (take > 0) {
+                long updated = holdsEnabled
+                        ? StockLevel.reserve(level, take)
+                        : level - StockLevel.stockDelta(take);
+                store.put(bucketKey, ValueAndTimestamp.make(updated, context.timestamp()));
+                updateStockMetric(bucketKey, StockLevel.stock(updated));
+                reservation.getTaken().merge(bucketKey, take, Integer::sum);
+                reservation.setRemaining(reservation.getRemaining() - take);
+            }
+            reservation.setHops(reservation.getHops() + 1);
+
+            if (reservation.getRemaining() == 0) {
+                log.info("INVENTORY COMMIT (HOT SKU) → Order {}: {} from {}", orderNumber, skuCode, reservation.getTaken());
+                reservation.setDone(true);
+                reservation.setSuccess(true);
+                return KeyValue.pair(orderNumber, reservation);
+            }
+            if (reservation.getHops() >= hotSkuSharding.getBuckets()) {
+                int quantity = request.getItem().getQuantity();
+                reservation.setDone(true);
+                reservation.setSuccess(false);
+                reservation.setReason("Not enough stock for " + skuCode + " (need " + quantity
+                        + ", have " + (quantity - reservation.getRemaining()) + ")");
+                log.warn("INVENTORY CHECK FAILED (HOT SKU) → Order {}: {}", orderNumber, reservation.getReason());
+                return KeyValue.pair(orderNumber, reservation);
+            }
+
+            int next = (reservation.getBucket() + 1) % hotSkuSharding.getBuckets();
+            reservation.setBucket(next);
+            return KeyValue.pair(hotSkuSharding.bucketKey(skuCode, next), reservation);
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    /**
+     * Lưu state của đơn (key = orderNumber) rồi tách thành các InventoryCheckRequest key = SKU.
+     */
+    private static class ReservationSplitTransformer
+            implements Transformer<String, InventoryReservationRequest, Iterable<KeyValue<String, InventoryCheckRequest>>> {
+
+        private KeyValueStore<String, OrderReservationState> store;
+
+        @Override
+        public void init(ProcessorContext context) {
+            this.store = context.getStateStore(RESERVATION_ORDER_STORE);
+        }
+
+        @Override
+        public Iterable<KeyValue<String, InventoryCheckRequest>> transform(String key, InventoryReservationRequest request) {
+            String orderNumber = request.getOrderNumber();
+            if (request.getItems() == null || request.getItems().isEmpty()) {
+                log.warn("RESERVATION SKIPPED → Order {} has no items", orderNumber);
+                return List.of();
+            }
+            store.put(orderNumber, new OrderReservationState(orderNumber, request.getItems(), 0, new ArrayList<>(), null));
+            return request.getItems().stream()
+                    .map(item -> KeyValue.pair(item.getSkuCode(), new InventoryCheckRequest(orderNumber, item)))
+                    .toList();
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    /**
+     * Gom kết quả từng dòng theo đơn. Trả về state cuối cùng khi đã nhận đủ mọi dòng, ngược lại trả null.
+     */
+    private static class ReservationAggregateTransformer
+            implements Transformer<String, InventoryCheckResult, KeyValue<String, OrderReservationState>> {
+
+        private KeyValueStore<String, OrderReservationState> store;
+
+        @Override
+        public void init(ProcessorContext context) {
+            this.store = context.getStateStore(RESERVATION_ORDER_STORE);
+        }
+
+        @Override
+        public KeyValue<String, OrderReservationState> transform(String orderNumber, InventoryCheckResult result) {
+            OrderReservationState state = store.get(orderNumber);
+            if (state == null) {
+                log.warn("RESERVATION → Order {} has no pending state, dropping line result", orderNumber);
+                return null;
+            }
+            state.setReceived(state.getReceived() + 1);
+            if (result.isSuccess()) {
+                state.getReserved().add(result.getItem());
+            } else if (state.getFailureReason() == null) {
+                state.setFailureReason(result.getReason());
+            }
+
+            if (state.getReceived() < state.getItems().size()) {
+                store.put(orderNumber, state);
+                return null;
+            }
+            store.delete(orderNumber);
+            log.info("RESERVATION DONE → Order {} ({})", orderNumber,
+                    state.getFailureReason() == null ? "OK" : state.getFailureReason());
+            return KeyValue.pair(orderNumber, state);
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    /**
+     * Value của reservation-order-store.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class OrderReservationState {
+        private String orderNumber;
+        private List<OrderLineItemRequest> items;
+        private int received;
+        private List<OrderLineItemRequest> reserved;   // Các dòng đã trừ kho (cần hoàn lại nếu đơn lỗi)
+        private String failureReason;
+    }
+    /**
+     * Áp dụng HoldCommand lên reservation-hold-store, trả về các InventoryAdjustmentEvent cần hoàn kho.
+     * Punctuator (wall-clock) quét hold hết hạn theo lô và hoàn kho cho chúng.
+     */
+    private static class ReservationHoldTransformer
+            implements Transformer<String, HoldCommand, Iterable<KeyValue<String, InventoryAdjustmentEvent>>> {
+
+        private final Duration ttl;
+        private KeyValueStore<String, ReservationHold> store;
+        private ProcessorContext context;
+
+        ReservationHoldTransformer(Duration ttl) {
+            this.ttl = ttl;
+        }
+
+        @Override
+        public void init(ProcessorContext context) {
+            this.context = context;
+            this.store = context.getStateStore(RESERVATION_HOLD_STORE);
+            context.schedule(HOLD_SWEEP_INTERVAL, PunctuationType.WALL_CLOCK_TIME, this::sweepExpired);
+        }
+
+        @Override
+        public Iterable<KeyValue<String, InventoryAdjustmentEvent>> transform(String key, HoldCommand command) {
+            String orderNumber = command.orderNumber();
+            ReservationHold hold = store.get(orderNumber);
+            long now = context.currentSystemTimeMs();
+
+            switch (command.type()) {
+                case HOLD -> {
+                    if (hold != null && hold.getStatus() == HoldStatus.RELEASED) {
+                        // Đơn đã bị hủy trước khi dòng này tới (VD: dòng khác FAILED) -> hoàn kho ngay
+                        return toReleaseEvents(orderNumber, command.items(), "Late line after release");
+                    }
+                    if (hold != null && hold.getStatus() == HoldStatus.CONFIRMED) {
+                        // Đơn đã thanh toán trước khi dòng này tới -> chốt luôn (không gắn vào marker CONFIRMED,
+                        // sweep xóa marker mà không hoàn reserved)
+                        return toConfirmEvents(orderNumber, command.items());
+                    }
+                    if (hold == null) {
+                        hold = new ReservationHold(orderNumber, new ArrayList<>(), HoldStatus.HELD, now);
+                    }
+                    hold.getItems().addAll(command.items());
+                    store.put(orderNumber, hold);
+                    return List.of();
+                }
+                case CONFIRM -> {
+                    List<OrderLineItemRequest> held = (hold != null && hold.getStatus() == HoldStatus.HELD)
+                            ? hold.getItems() : List.of();
+                    // Hàng đã bán: giữ marker tới hết TTL để bỏ qua các sự kiện tới muộn
+                    store.put(orderNumber, new ReservationHold(orderNumber, new ArrayList<>(), HoldStatus.CONFIRMED, now));
+                    log.info("HOLD CONFIRMED → Order {}", orderNumber);
+                    return toConfirmEvents(orderNumber, held);
+                }
+                case RELEASE -> {
+                    List<OrderLineItemRequest> held = (hold != null && hold.getStatus() == HoldStatus.HELD)
+                            ? hold.getItems() : List.of();
+                    if (hold != null && hold.getStatus() == HoldStatus.CONFIRMED) {
+                        log.warn("HOLD RELEASE IGNORED → Order {} already confirmed", orderNumber);
+                        return List.of();
+                    }
+                    store.put(orderNumber, new ReservationHold(orderNumber, new ArrayList<>(), HoldStatus.RELEASED, now));
+                    log.info("HOLD RELEASED → Order {} ({} lines, {})", orderNumber, held.size(), command.reason());
+                    return toReleaseEvents(orderNumber, held, command.reason());
+                }
+                default -> {
+                    return List.of();
+                }
+            }
+        }
+
+        private void sweepExpired(long now) {
+            List<ReservationHold> expired = new ArrayList<>();
+            try (KeyValueIterator<String, ReservationHold> it = store.all()) {
+                while (it.hasNext()) {
+                    ReservationHold hold = it.next().value;
+                    if (now - hold.getUpdatedAt() > ttl.toMillis()) {
+                        expired.add(hold);
+                    }
+                }
+            }
+
+            int released = 0;
+            for (ReservationHold hold : expired) {
+                store.delete(hold.getOrderNumber());
+                if (hold.getStatus() == HoldStatus.HELD) {
+                    for (KeyValue<String, InventoryAdjustmentEvent> event :
+                            toReleaseEvents(hold.getOrderNumber(), hold.getItems(), "Hold expired")) {
+                        context.forward(event.key, event.value);
+                    }
+                    released++;
+                }
+            }
+            if (released > 0) {
+                log.warn("HOLD SWEEP → released {} expired holds", released);
+            }
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    /**
+     * Request của SKU hot khi đi qua các bucket (value của inventory-hot-sku-hop-topic).
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class HotSkuReservation {
+        public static final String ORIGIN_CHECK = "CHECK";               // từ inventory-check-request-topic
+        public static final String ORIGIN_RESERVATION = "RESERVATION";   // từ luồng giữ kho cả đơn
+
+        private InventoryCheckRequest request;
+        private String origin;
+        private int bucket;
+        private int hops;
+        private int remaining;
+        private Map<String, Integer> taken;   // bucketKey -> số lượng đã lấy
+        private boolean done;
+        private boolean success;
+        private String reason;
+
+        InventoryCheckResult toResult() {
+            return new InventoryCheckResult(request.getOrderNumber(), request.getItem(), success, reason);
+        }
+    }
+
+    public enum HoldStatus { HELD, CONFIRMED, RELEASED }
+
+    /**
+     * Value của reservation-hold-store. items chỉ có ý nghĩa khi status = HELD.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class ReservationHold {
+        private String orderNumber;
+        private List<OrderLineItemRequest> items;
+        private HoldStatus status;
+        private long updatedAt;
+    }
+
+    // Lệnh nội bộ của BUILDER D (không ra khỏi topology nên không cần serde)
+    private record HoldCommand(String orderNumber, Type type, List<OrderLineItemRequest> items, String reason) {
+        enum Type { HOLD, CONFIRM, RELEASE }
+
+        static HoldCommand hold(String orderNumber, List<OrderLineItemRequest> items) {
+            return new HoldCommand(orderNumber, Type.HOLD, items, null);
+        }
+
+        static HoldCommand confirm(String orderNumber) {
+            return new HoldCommand(orderNumber, Type.CONFIRM, List.of(), null);
+        }
+
+        static HoldCommand release(String orderNumber, String reason) {
+            return new HoldCommand(orderNumber, Type.RELEASE, List.of(), reason);
+        }
+    }
+}
@@ -5,6 +5,7 @@ import org.apache.kafka.clients.producer.ProducerConfig;
 import org.apache.kafka.common.serialization.Serdes;
 import org.apache.kafka.streams.KafkaStreams;
 import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.state.HostInfo;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
@@ -24,7 +25,11 @@ public class KafkaStreamsConfig {
     private String bootstrapServers;
 
     @Value("${server.port}")
-    private String serverPort;
+    private int serverPort;
+
+    // Host mà các instance khác dùng để gọi interactive query tới instance này
+    @Value("${inventory.advertised-host:localhost}")
+    private String advertisedHost;
 
     @Value("${spring.kafka.streams.properties.application.id}")
     private String applicationId;
@@ -42,6 +47,12 @@ public class KafkaStreamsConfig {
     // }
 
 
+    // Địa chỉ của instance này trong metadata của Kafka Streams
+    @Bean
+    public HostInfo inventoryHostInfo() {
+        return new HostInfo(advertisedHost, serverPort);
+    }
+
     @Bean(name = KafkaStreamsDefaultConfiguration.DEFAULT_STREAMS_CONFIG_BEAN_NAME)
     public KafkaStreamsConfiguration kafkaStreamsConfiguration() {
 
@@ -54,7 +65,7 @@ public class KafkaStreamsConfig {
         props.put(StreamsConfig.APPLICATION_ID_CONFIG, applicationId);
 
         // REQUIRED FOR INTERACTIVE QUERIES
-        props.put(StreamsConfig.APPLICATION_SERVER_CONFIG, "localhost:" + serverPort);
+        props.put(StreamsConfig.APPLICATION_SERVER_CONFIG, inventoryHostInfo().host() + ":" + inventoryHostInfo().port());
 
         // STATE DIR FROM PROPERTIES
         props.put(StreamsConfig.STATE_DIR_CONFIG, stateDir);
@@ -8,7 +8,8 @@ import org.springframework.kafka.config.TopicBuilder;
 @Configuration
 public class KafkaTopicConfig {
 
-    private final int NUM_PARTITIONS = 10;
+    // InventoryTopology dùng chung để co-partition reservation-line-result-by-order với inventory-reservation-request-topic
+    static final int NUM_PARTITIONS = 10;
     private final short REPLICAS = 1;
 
     // ==========================================================
@@ -31,6 +32,32 @@ public class KafkaTopicConfig {
                 .build();
     }
 
+    // Giữ kho theo cả đơn hàng (key = orderNumber)
+    @Bean
+    public NewTopic inventoryReservationRequestTopic() {
+        return TopicBuilder.name("inventory-reservation-request-topic")
+                .partitions(NUM_PARTITIONS)
+                .replicas(REPLICAS)
+                .build();
+    }
+
+    @Bean
+    public NewTopic inventoryReservationResultTopic() {
+        return TopicBuilder.name("inventory-reservation-result-topic")
+                .partitions(NUM_PARTITIONS)
+                .replicas(REPLICAS)
+                .build();
+    }
+
+    // Request của SKU hot chuyển giữa các bucket (key = "SKU#b")
+    @Bean
+    public NewTopic inventoryHotSkuHopTopic() {
+        return TopicBuilder.name(InventoryTopology.HOT_SKU_HOP_TOPIC)
+                .partitions(NUM_PARTITIONS)
+                .replicas(REPLICAS)
+                .build();
+    }
+
     // ==========================================================
     // (Các topic bean cũ của bạn giữ nguyên)
     // ==========================================================
@@ -1,5 +1,8 @@
 package com.myexampleproject.inventoryservice.config;
 
+import com.myexampleproject.common.security.GatewayIdentityFilter;
+import com.myexampleproject.common.security.GatewayIdentityVerifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -8,6 +11,7 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+import org.springframework.security.oauth2.server.resource.web.authentication.BearerTokenAuthenticationFilter;
 import org.springframework.security.web.SecurityFilterChain;
 
 @Configuration
@@ -15,11 +19,15 @@ import org.springframework.security.web.SecurityFilterChain;
 public class SecurityConfig {
 
     @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain filterChain(HttpSecurity http, GatewayIdentityVerifier gatewayIdentityVerifier,
+                                           @Value("${inventory.internal.secret:}") String internalSecret) throws Exception {
         http
                 .csrf(csrf -> csrf.disable())
                 .authorizeHttpRequests(auth -> auth
                         .requestMatchers("/actuator/**").permitAll()
+                        // Interactive query / chuyển adjustment giữa các instance (gateway không route /internal/**),
+                        // xác thực bằng secret dùng chung (InternalRequestFilter)
+                        .requestMatchers("/internal/inventory/**").hasRole(InternalRequestFilter.ROLE)
                         .requestMatchers(HttpMethod.POST, "/api/inventory/adjust").hasRole("ADMIN")
                         .requestMatchers(HttpMethod.GET, "/api/inventory/**").permitAll()
                         .anyRequest().authenticated()
@@ -30,6 +38,11 @@ public class SecurityConfig {
                 .sessionManagement(session -> session
                         .sessionCreationPolicy(SessionCreationPolicy.STATELESS));
 
+        // Header định danh của gateway dùng cùng converter role Keycloak với JWT
+        http.addFilterBefore(new GatewayIdentityFilter(gatewayIdentityVerifier, jwtAuthenticationConverter()),
+                BearerTokenAuthenticationFilter.class);
+        http.addFilterBefore(new InternalRequestFilter(internalSecret), BearerTokenAuthenticationFilter.class);
+
         return http.build();
     }
 
@@ -0,0 +1,143 @@
+package com.myexampleproject.inventoryservice.config;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serializer;
+
+/**
+ * Giá trị của inventory-store: (stock, reserved) gói trong 1 long.
+ *
+ * 4 byte cao = stock (hàng còn bán được), 4 byte thấp = reserved (hàng đang giữ cho đơn chưa thanh toán).
+ * Trên đĩa là đúng 8 byte big-endian. Mọi thao tác đọc/ghi chỉ dùng phép dịch bit trên long,
+ * không tạo object trung gian. Delta trong repartition topic cũng dùng cùng layout.
+ */
+public final class StockLevel {
+
+    public static final long EMPTY = 0L;
+    public static final int SIZE_BYTES = Long.BYTES;
+    // Định dạng trước đây: Serdes.Integer(), chỉ lưu stock
+    private static final int LEGACY_SIZE_BYTES = Integer.BYTES;
+
+    private StockLevel() {
+    }
+
+    public static long of(int stock, int reserved) {
+        return ((long) stock << 32) | (reserved & 0xFFFFFFFFL);
+    }
+
+    public static int stock(long level) {
+        return (int) (level >> 32);
+    }
+
+    public static int reserved(long level) {
+        return (int) level;
+    }
+
+    // Delta chỉ thay đổi stock
+    public static long stockDelta(int change) {
+        return of(change, 0);
+    }
+
+    /**
+     * Cộng delta vào level hiện tại. Stock không âm và không tràn;
+     * reserved không chặn dưới vì các bucket SKU hot có thể lệch âm khi hoàn kho chia đều (tổng vẫn đúng).
+     */
+    public static long apply(long level, long delta) {
+        long stock = (long) stock(level) + stock(delta);
+        long reserved = (long) reserved(level) + reserved(delta);
+        return of(clamp(stock, 0), clamp(reserved, Integer.MIN_VALUE));
+    }
+
+    /**
+     * Giữ hàng: stock -> reserved. Gọi canReserve trước; số lượng không hợp lệ hoặc reserved tràn int
+     * thì ném ArithmeticException thay vì ghi một level sai vào store.
+     */
+    public static long reserve(long level, int quantity) {
+        if (!canReserve(level, quantity)) {
+            throw new ArithmeticException("Cannot reserve " + quantity + " from " + toString(level));
+        }
+        return of(stock(level) - quantity, reserved(level) + quantity);
+    }
+
+    public static boolean canReserve(long level, int quantity) {
+        return quantity >= 0 && stock(level) >= quantity && (long) reserved(level) + quantity <= Integer.MAX_VALUE;
+    }
+
+    private static int clamp(long value, int min) {
+        return (int) Math.max(min, Math.min(value, Integer.MAX_VALUE));
+    }
+
+    public static void write(long level, byte[] target, int offset) {
+        target[offset] = (byte) (level >>> 56);
+        target[offset + 1] = (byte) (level >>> 48);
+        target[offset + 2] = (byte) (level >>> 40);
+        target[offset + 3] = (byte) (level >>> 32);
+        target[offset + 4] = (byte) (level >>> 24);
+        target[offset + 5] = (byte) (level >>> 16);
+        target[offset + 6] = (byte) (level >>> 8);
+        target[offset + 7] = (byte) level;
+    }
+
+    public static long read(byte[] source, int offset) {
+        return ((source[offset] & 0xFFL) << 56)
+                | ((source[offset + 1] & 0xFFL) << 48)
+                | ((source[offset + 2] & 0xFFL) << 40)
+                | ((source[offset + 3] & 0xFFL) << 32)
+                | ((source[offset + 4] & 0xFFL) << 24)
+                | ((source[offset + 5] & 0xFFL) << 16)
+                | ((source[offset + 6] & 0xFFL) << 8)
+                | (source[offset + 7] & 0xFFL);
+    }
+
+    public static String toString(long level) {
+        return "(stock=" + stock(level) + ", reserved=" + reserved(level) + ")";
+    }
+
+    /**
+     * Serde cố định 8 byte cho inventory-store và các repartition topic của kho.
+     * Vẫn đọc được giá trị Integer 4 byte của định dạng cũ (chỉ có stock) còn trong changelog / repartition topic,
+     * nên không cần đổi application.id khi nâng cấp.
+     */
+    public static class StockLevelSerde implements Serde<Long>, Serializer<Long>, Deserializer<Long> {
+
+        @Override
+        public byte[] serialize(String topic, Long level) {
+            if (level == null) {
+                return null;
+            }
+            byte[] bytes = new byte[SIZE_BYTES];
+            write(level, bytes, 0);
+            return bytes;
+        }
+
+        @Override
+        public Long deserialize(String topic, byte[] bytes) {
+            if (bytes == null) {
+                return null;
+            }
+            if (bytes.length == LEGACY_SIZE_BYTES) {
+                int stock = ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+                return of(stock, 0);
+            }
+            if (bytes.length != SIZE_BYTES) {
+                throw new SerializationException("StockLevel must be " + SIZE_BYTES + " bytes but was " + bytes.length);
+            }
+            return read(bytes, 0);
+        }
+
+        @Override
+        public Serializer<Long> serializer() {
+            return this;
+        }
+
+        @Override
+        public Deserializer<Long> deserializer() {
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
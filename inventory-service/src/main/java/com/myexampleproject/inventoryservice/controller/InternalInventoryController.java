@@ -0,0 +1,40 @@
+package com.myexampleproject.inventoryservice.controller;
+
+import com.myexampleproject.common.event.InventoryAdjustmentEvent;
+import com.myexampleproject.inventoryservice.service.InventoryService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Endpoint nội bộ giữa các instance inventory-service (không đi qua gateway).
+ * Chỉ làm việc với inventory-store LOCAL, instance gọi tới đã tự chọn đúng host qua queryMetadataForKey.
+ */
+@RestController
+@RequestMapping("/internal/inventory")
+@RequiredArgsConstructor
+public class InternalInventoryController {
+
+    private final InventoryService inventoryService;
+
+    // Body: danh sách key của store (SKU hoặc bucket "SKU#b"), trả về stock của các key đang có
+    @PostMapping("/store")
+    public Map<String, Integer> readLocalStore(@RequestBody List<String> keys) {
+        return inventoryService.readLocalStock(keys);
+    }
+
+    // Adjustment được chuyển tới từ instance khác: chỉ instance sở hữu SKU mới biết khi nào store đã áp dụng
+    @PostMapping("/adjust")
+    public CompletableFuture<ResponseEntity<Integer>> adjust(@RequestBody InventoryAdjustmentEvent event) {
+        // Kiểm tra lại trên store của instance sở hữu SKU (instance gọi tới đọc qua interactive query)
+        int current = inventoryService.readLocalStock(List.of(event.getSkuCode())).getOrDefault(event.getSkuCode(), 0);
+        if (current + event.getAdjustmentQuantity() < 0) {
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().build());
+        }
+        return inventoryService.adjust(event).thenApply(ResponseEntity::ok);
+    }
+}
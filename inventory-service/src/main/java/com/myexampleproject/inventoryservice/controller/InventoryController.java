@@ -6,11 +6,17 @@ import com.myexampleproject.common.event.InventoryAdjustmentEvent;
 import com.myexampleproject.inventoryservice.service.InventoryService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.HttpClientErrorException;
 
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 @Slf4j
 @RestController
@@ -18,15 +24,17 @@ import java.util.Map;
 @RequiredArgsConstructor
 public class InventoryController {
 
-    private final KafkaTemplate<String, Object> kafkaTemplate;
     private final InventoryService inventoryService;
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    // Giới hạn số SKU mỗi lần tra cứu hàng loạt
+    private static final int MAX_BATCH_SKUS = 500;
+
     // ============================
     // ADJUST INVENTORY
     // ============================
     @PostMapping("/adjust")
-    public ResponseEntity<?> adjustInventory(@RequestBody String rawBody) {
+    public CompletableFuture<ResponseEntity<?>> adjustInventory(@RequestBody String rawBody) {
         log.info("RAW REQUEST BODY: {}", rawBody);
 
         InventoryAdjustmentEvent event;
@@ -37,51 +45,97 @@ public class InventoryController {
             JsonNode json = objectMapper.readTree(rawBody);
 
             if (!json.has("skuCode"))
-                return ResponseEntity.badRequest().body(Map.of("error", "skuCode required"));
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(Map.of("error", "skuCode required")));
 
             if (!json.has("adjustmentQuantity"))
-                return ResponseEntity.badRequest().body(Map.of("error", "adjustmentQuantity required"));
+                return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(Map.of("error", "adjustmentQuantity required")));
 
             String sku = json.get("skuCode").asText();
             delta = Integer.parseInt(json.get("adjustmentQuantity").asText());
             String reason = json.has("reason") ? json.get("reason").asText() : null;
 
-            event = new InventoryAdjustmentEvent(sku, delta, reason);
+            event = InventoryAdjustmentEvent.builder()
+                    .skuCode(sku)
+                    .adjustmentQuantity(delta)
+                    .reason(reason)
+                    .build();
 
         } catch (Exception e) {
             log.error("JSON parse error", e);
-            return ResponseEntity.badRequest().body(Map.of("error", "Invalid JSON"));
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(Map.of("error", "Invalid JSON")));
         }
 
         if (delta == 0)
-            return ResponseEntity.badRequest().body(Map.of("error", "Adjustment cannot be zero"));
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(Map.of("error", "Adjustment cannot be zero")));
 
         // ---------- READ CURRENT STOCK ----------
         Integer current = inventoryService.getQuantity(event.getSkuCode());
         if (current == null)
-            return ResponseEntity.status(503).body(Map.of("error", "State store not ready"));
+            return CompletableFuture.completedFuture(ResponseEntity.status(503).body(Map.of("error", "State store not ready")));
 
         // ---------- PREVENT NEGATIVE STOCK ----------
         if (current + delta < 0)
-            return ResponseEntity.badRequest().body(Map.of(
+            return CompletableFuture.completedFuture(ResponseEntity.badRequest().body(Map.of(
                     "error", "Inventory cannot be negative",
                     "current", current,
                     "attempted", delta
-            ));
+            )));
+
+        // ---------- PRODUCE EVENT + CHỜ STORE ÁP DỤNG ----------
+        // Không giữ thread: response hoàn tất khi InventoryTopology báo adjustment đã vào store
+        return inventoryService.adjust(event)
+                .<ResponseEntity<?>>thenApply(updated -> {
+                    if (updated == null)
+                        return ResponseEntity.accepted().body(Map.of("status", "queued"));
+
+                    // ---------- RETURN RESULT ----------
+                    return ResponseEntity.ok(Map.of(
+                            "skuCode", event.getSkuCode(),
+                            "newQuantity", updated
+                    ));
+                })
+                .exceptionally(ex -> {
+                    // Hết thời gian chờ đã được trả về null ở trên, tới đây là lỗi thật: gửi Kafka / chuyển request lỗi
+                    Throwable cause = ex;
+                    while (cause instanceof CompletionException && cause.getCause() != null) {
+                        cause = cause.getCause();
+                    }
+                    if (cause instanceof HttpClientErrorException.BadRequest) {
+                        // Instance sở hữu SKU kiểm tra lại và từ chối
+                        return ResponseEntity.badRequest().body(Map.of(
+                                "error", "Inventory cannot be negative",
+                                "attempted", event.getAdjustmentQuantity()
+                        ));
+                    }
+                    log.error("Adjustment {} thất bại: {}", event.getSkuCode(), cause.getMessage());
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(Map.of("error", "Adjustment failed"));
+                });
+    }
 
-        // ---------- PRODUCE EVENT ----------
-        kafkaTemplate.send("inventory-adjustment-topic", event.getSkuCode(), event);
+    // ============================
+    // GET INVENTORY (NHIỀU SKU)
+    // ============================
+    // GET /api/inventory?sku=A&sku=B hoặc ?sku=A,B -> {"A": 10, "B": 0}
+    @GetMapping
+    public ResponseEntity<?> getInventories(@RequestParam("sku") List<String> skus) {
+        Set<String> uniqueSkus = new LinkedHashSet<>();
+        for (String sku : skus) {
+            if (sku != null && !sku.isBlank()) {
+                uniqueSkus.add(sku.trim());
+            }
+        }
+
+        if (uniqueSkus.isEmpty())
+            return ResponseEntity.badRequest().body(Map.of("error", "sku required"));
 
-        // ---------- WAIT FOR ASYNC UPDATE ----------
-        Integer updated = inventoryService.waitForUpdatedQuantity(event.getSkuCode());
-        if (updated == null)
-            return ResponseEntity.accepted().body(Map.of("status", "queued"));
+        if (uniqueSkus.size() > MAX_BATCH_SKUS)
+            return ResponseEntity.badRequest().body(Map.of(
+                    "error", "Too many SKUs",
+                    "max", MAX_BATCH_SKUS,
+                    "requested", uniqueSkus.size()
+            ));
 
-        // ---------- RETURN RESULT ----------
-        return ResponseEntity.ok(Map.of(
-                "skuCode", event.getSkuCode(),
-                "newQuantity", updated
-        ));
+        return ResponseEntity.ok(inventoryService.getQuantities(uniqueSkus));
     }
 
     // ============================
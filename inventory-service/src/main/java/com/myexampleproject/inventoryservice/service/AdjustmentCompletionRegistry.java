@@ -0,0 +1,48 @@
+package com.myexampleproject.inventoryservice.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Các InventoryAdjustmentEvent đang chờ được áp dụng vào inventory-store, theo correlationId.
+ * InventoryTopology gọi complete() ngay khi aggregate đã cộng adjustment đó vào store,
+ * nên HTTP request không phải giữ thread để poll store.
+ */
+@Slf4j
+@Component
+public class AdjustmentCompletionRegistry {
+
+    private final Map<String, CompletableFuture<Integer>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Đăng ký trước khi gửi event. Future hết hạn sau timeout (TimeoutException) và tự được gỡ khỏi registry.
+     */
+    public CompletableFuture<Integer> register(String correlationId, Duration timeout) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        pending.put(correlationId, future);
+        return future
+                .orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((stock, ex) -> pending.remove(correlationId));
+    }
+
+    // Gọi từ stream thread: chỉ hoàn tất future, không làm gì nặng
+    public void complete(String correlationId, int newStock) {
+        CompletableFuture<Integer> future = pending.get(correlationId);
+        if (future != null) {
+            future.complete(newStock);
+        }
+    }
+
+    public void fail(String correlationId, Throwable error) {
+        CompletableFuture<Integer> future = pending.get(correlationId);
+        if (future != null) {
+            future.completeExceptionally(error);
+        }
+    }
+}
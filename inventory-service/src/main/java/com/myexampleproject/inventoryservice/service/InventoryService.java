@@ -1,14 +1,36 @@
 package com.myexampleproject.inventoryservice.service;
 
+import com.myexampleproject.inventoryservice.config.HotSkuSharding;
 import com.myexampleproject.inventoryservice.config.InventoryTopology;
+import com.myexampleproject.inventoryservice.config.StockLevel;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.serialization.StringSerializer;
 import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.KeyQueryMetadata;
 import org.apache.kafka.streams.StoreQueryParameters;
+import org.apache.kafka.streams.state.HostInfo;
 import org.apache.kafka.streams.state.QueryableStoreTypes;
 import org.apache.kafka.streams.state.ReadOnlyKeyValueStore;
+import com.myexampleproject.common.event.InventoryAdjustmentEvent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.config.StreamsBuilderFactoryBean; // Import này là đúng
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestClient;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 @Slf4j
 @Service
@@ -19,6 +41,29 @@ public class InventoryService {
      * Inject StreamsBuilderFactoryBean là đúng.
      */
     private final StreamsBuilderFactoryBean streamsBuilderFactory;
+    private final HotSkuSharding hotSkuSharding;
+    private final HostInfo inventoryHostInfo;
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final AdjustmentCompletionRegistry adjustmentCompletionRegistry;
+    private final RestClient inventoryQueryRestClient;
+    private final RestClient inventoryAdjustRestClient;
+
+    // Thời gian tối đa chờ adjustment vào store (phụ thuộc commit interval của Kafka Streams)
+    @Value("${inventory.adjust.timeout:10s}")
+    private Duration adjustTimeout;
+
+    private static final Serializer<String> KEY_SERIALIZER = new StringSerializer();
+    // Gọi các instance khác song song, mỗi request 1 virtual thread
+    private final ExecutorService queryExecutor = Executors.newVirtualThreadPerTaskExecutor();
+
+    // Khi tắt: không nhận lời gọi mới, chờ các lời gọi sang instance khác đang chạy (lâu nhất là adjustTimeout)
+    @PreDestroy
+    public void stopRemoteCalls() throws InterruptedException {
+        queryExecutor.shutdown();
+        if (!queryExecutor.awaitTermination(adjustTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            queryExecutor.shutdownNow();
+        }
+    }
 
 
     /*
@@ -28,19 +73,96 @@ public class InventoryService {
 
 
     /**
-     * Lấy tồn kho hiện tại theo SKU
+     * Lấy tồn kho hiện tại theo SKU (kể cả khi SKU thuộc partition của instance khác)
      */
     public Integer getQuantity(String sku) {
-        ReadOnlyKeyValueStore<String, Integer> store = waitUntilStoreIsReady();
-        Integer qty = store.get(sku);
-        return qty != null ? qty : 0;
+        return getQuantities(List.of(sku)).getOrDefault(sku, 0);
+    }
+
+    /**
+     * Lấy tồn kho của nhiều SKU.
+     * Mỗi key của store được định tuyến tới host đang giữ partition của nó (queryMetadataForKey),
+     * key được gom theo host và các host từ xa được gọi song song, mỗi host 1 request.
+     */
+    public Map<String, Integer> getQuantities(Collection<String> skus) {
+        ReadOnlyKeyValueStore<String, Long> localStore = waitUntilStoreIsReady();
+        KafkaStreams streams = streamsBuilderFactory.getKafkaStreams();
+
+        // 1. SKU -> key trong store (SKU hot = nhiều bucket), nhóm theo host
+        Map<HostInfo, List<String>> keysByHost = new HashMap<>();
+        for (String sku : skus) {
+            for (String key : storeKeys(sku)) {
+                keysByHost.computeIfAbsent(ownerOf(streams, key), h -> new ArrayList<>()).add(key);
+            }
+        }
+
+        // 2. Đọc local ngay, host khác gọi song song
+        Map<String, Integer> stockByKey = new ConcurrentHashMap<>();
+        List<CompletableFuture<Void>> remoteCalls = new ArrayList<>();
+        for (Map.Entry<HostInfo, List<String>> entry : keysByHost.entrySet()) {
+            if (entry.getKey().equals(inventoryHostInfo)) {
+                stockByKey.putAll(readLocalStock(localStore, entry.getValue()));
+            } else {
+                remoteCalls.add(CompletableFuture
+                        .supplyAsync(() -> readRemoteStock(entry.getKey(), entry.getValue()), queryExecutor)
+                        .thenAccept(stockByKey::putAll));
+            }
+        }
+        try {
+            CompletableFuture.allOf(remoteCalls.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Không đọc được tồn kho từ instance khác: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        // 3. Cộng lại theo SKU (key chưa có trong store = 0)
+        Map<String, Integer> result = new LinkedHashMap<>();
+        for (String sku : skus) {
+            int total = 0;
+            for (String key : storeKeys(sku)) {
+                total += stockByKey.getOrDefault(key, 0);
+            }
+            result.put(sku, total);
+        }
+        return result;
+    }
+
+    /**
+     * Đọc các key trong inventory-store của instance này (dùng cho endpoint nội bộ).
+     */
+    public Map<String, Integer> readLocalStock(Collection<String> keys) {
+        return readLocalStock(waitUntilStoreIsReady(), keys);
+    }
+
+    private Map<String, Integer> readLocalStock(ReadOnlyKeyValueStore<String, Long> store, Collection<String> keys) {
+        Map<String, Integer> stock = new HashMap<>();
+        for (String key : keys) {
+            Long level = store.get(key);
+            if (level != null) {
+                stock.put(key, StockLevel.stock(level));
+            }
+        }
+        return stock;
+    }
+
+    private Map<String, Integer> readRemoteStock(HostInfo host, List<String> keys) {
+        log.debug("Interactive query → {}:{} ({} keys)", host.host(), host.port(), keys.size());
+        Map<String, Integer> stock = inventoryQueryRestClient.post()
+                .uri("http://{host}:{port}/internal/inventory/store", host.host(), host.port())
+                .body(keys)
+                .retrieve()
+                .body(new ParameterizedTypeReference<Map<String, Integer>>() {});
+        return stock != null ? stock : Map.of();
+    }
+
+    private List<String> storeKeys(String sku) {
+        return hotSkuSharding.isHot(sku) ? hotSkuSharding.bucketKeys(sku) : List.of(sku);
     }
 
     /**
      * Chờ state store mở xong trước khi truy vấn.
      * (Phương thức này đã đúng logic từ trước)
      */
-    private ReadOnlyKeyValueStore<String, Integer> waitUntilStoreIsReady() {
+    private ReadOnlyKeyValueStore<String, Long> waitUntilStoreIsReady() {
 
         for (int attempt = 1; attempt <= 30; attempt++) {
 
@@ -81,45 +203,55 @@ public class InventoryService {
     }
 
     /**
-     * Sau adjust inventory, chờ state được update rồi trả về kết quả.
-     * SỬA LẠI LOGIC CHO ĐÚNG:
+     * Gửi InventoryAdjustmentEvent và trả về future hoàn tất với tồn kho mới khi aggregate đã áp dụng nó.
+     * Future chỉ có thể hoàn tất ở instance đang xử lý partition của SKU, nên nếu SKU thuộc instance khác
+     * thì chuyển cả request sang đó. Trả về null (trong future) CHỈ khi hết thời gian chờ;
+     * gửi Kafka lỗi hoặc chuyển sang instance khác lỗi thì future lỗi.
      */
-    public Integer waitForUpdatedQuantity(String sku) {
-
-        for (int attempt = 1; attempt <= 10; attempt++) {
-
-            try {
-                // 1. Lấy KafkaStreams từ factory
-                KafkaStreams streams = streamsBuilderFactory.getKafkaStreams();
+    public CompletableFuture<Integer> adjust(InventoryAdjustmentEvent event) {
+        String sku = event.getSkuCode();
 
-                // 2. Nếu streams null HOẶC state chưa ready, ném lỗi để sleep/retry
-                if (streams == null || !streams.state().isRunningOrRebalancing()) {
-                    throw new IllegalStateException("Streams chưa ready hoặc đang rebalance");
-                }
+        // SKU hot: adjustment bị chia cho nhiều bucket ở nhiều task, không có 1 thời điểm "đã áp dụng"
+        if (hotSkuSharding.isHot(sku)) {
+            return kafkaTemplate.send("inventory-adjustment-topic", sku, event).thenApply(result -> null);
+        }
 
-                // 3. Truy vấn store
-                ReadOnlyKeyValueStore<String, Integer> store =
-                        streams.store(
-                                StoreQueryParameters.fromNameAndType(
-                                        InventoryTopology.INVENTORY_STORE,
-                                        QueryableStoreTypes.keyValueStore()
-                                )
-                        );
-
-                Integer qty = store.get(sku);
-                if (qty != null) {
-                    return qty; // Tìm thấy, trả về ngay
-                }
+        waitUntilStoreIsReady();
+        HostInfo owner = ownerOf(streamsBuilderFactory.getKafkaStreams(), sku);
+        if (!owner.equals(inventoryHostInfo)) {
+            return CompletableFuture.supplyAsync(() -> adjustRemote(owner, event), queryExecutor);
+        }
 
-            } catch (Exception ignored) {
-                // Bị exception (ví dụ: IllegalStateException ở trên, hoặc store not ready)
-                // -> Bỏ qua, sleep và lặp lại
+        String correlationId = UUID.randomUUID().toString();
+        event.setCorrelationId(correlationId);
+        CompletableFuture<Integer> applied = adjustmentCompletionRegistry.register(correlationId, adjustTimeout);
+        kafkaTemplate.send("inventory-adjustment-topic", sku, event)
+                .whenComplete((result, ex) -> {
+                    if (ex != null) {
+                        adjustmentCompletionRegistry.fail(correlationId, ex);
+                    }
+                });
+        return applied.exceptionally(ex -> {
+            if (ex instanceof TimeoutException || ex.getCause() instanceof TimeoutException) {
+                return null; // Vẫn sẽ được áp dụng, chỉ là chưa kịp trong thời gian chờ
             }
+            throw new CompletionException(ex);
+        });
+    }
 
-            sleep(50);
-        }
+    private Integer adjustRemote(HostInfo host, InventoryAdjustmentEvent event) {
+        log.debug("Forward adjustment {} → {}:{}", event.getSkuCode(), host.host(), host.port());
+        return inventoryAdjustRestClient.post()
+                .uri("http://{host}:{port}/internal/inventory/adjust", host.host(), host.port())
+                .body(event)
+                .retrieve()
+                .body(Integer.class);
+    }
 
-        return null; // không có update sau 10 lần thử
+    private HostInfo ownerOf(KafkaStreams streams, String key) {
+        KeyQueryMetadata metadata = streams.queryMetadataForKey(InventoryTopology.INVENTORY_STORE, key, KEY_SERIALIZER);
+        return (metadata == null || KeyQueryMetadata.NOT_AVAILABLE.equals(metadata))
+                ? inventoryHostInfo : metadata.activeHost();
     }
 
     private void sleep(long ms) {
@@ -0,0 +1,83 @@
+package com.myexampleproject.inventoryservice.benchmark;
+
+import com.myexampleproject.inventoryservice.config.StockLevel;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.streams.state.ValueAndTimestamp;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * So sánh vòng đọc - sửa - ghi của inventory-store cho 1 lần giữ hàng:
+ * layout cũ (Integer qua Serdes.Integer + ValueAndTimestamp) và layout StockLevel 8 byte.
+ *
+ * Chạy tay (không chạy trong mvn test):
+ * mvn -pl inventory-service test-compile exec:java -Dexec.classpathScope=test
+ *     -Dexec.mainClass=com.myexampleproject.inventoryservice.benchmark.InventoryStoreBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InventoryStoreBenchmark {
+
+    private static final String TOPIC = "inventory-store-changelog";
+    private static final int QUANTITY = 1;
+
+    private final Serializer<Integer> intSerializer = Serdes.Integer().serializer();
+    private final Deserializer<Integer> intDeserializer = Serdes.Integer().deserializer();
+    private final StockLevel.StockLevelSerde stockLevelSerde = new StockLevel.StockLevelSerde();
+
+    private byte[] integerBytes;
+    private byte[] stockLevelBytes;
+    private long timestamp;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        integerBytes = intSerializer.serialize(TOPIC, Integer.MAX_VALUE);
+        stockLevelBytes = stockLevelSerde.serialize(TOPIC, StockLevel.of(Integer.MAX_VALUE, 0));
+        timestamp = System.currentTimeMillis();
+    }
+
+    // Layout cũ: bytes -> Integer -> ValueAndTimestamp<Integer> -> bytes mới
+    @Benchmark
+    public void integerLayout(Blackhole bh) {
+        ValueAndTimestamp<Integer> current = ValueAndTimestamp.make(intDeserializer.deserialize(TOPIC, integerBytes), timestamp);
+        Integer currentStock = current.value();
+        ValueAndTimestamp<Integer> updated = ValueAndTimestamp.make(currentStock - QUANTITY, timestamp);
+        integerBytes = intSerializer.serialize(TOPIC, updated.value());
+        bh.consume(integerBytes);
+    }
+
+    // StockLevel qua Serde (đường đi thật của state store): vẫn có boxing Long + ValueAndTimestamp
+    @Benchmark
+    public void stockLevelSerde(Blackhole bh) {
+        ValueAndTimestamp<Long> current = ValueAndTimestamp.make(stockLevelSerde.deserialize(TOPIC, stockLevelBytes), timestamp);
+        long updated = StockLevel.reserve(current.value(), QUANTITY);
+        stockLevelBytes = stockLevelSerde.serialize(TOPIC, ValueAndTimestamp.make(updated, timestamp).value());
+        bh.consume(stockLevelBytes);
+    }
+
+    // StockLevel sửa trực tiếp trên buffer: không cấp phát gì
+    @Benchmark
+    public void stockLevelInPlace(Blackhole bh) {
+        long updated = StockLevel.reserve(StockLevel.read(stockLevelBytes, 0), QUANTITY);
+        StockLevel.write(updated, stockLevelBytes, 0);
+        bh.consume(stockLevelBytes);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(InventoryStoreBenchmark.class.getSimpleName())
+                .addProfiler("gc")
+                .build()).run();
+    }
+}
@@ -0,0 +1,223 @@
+package com.myexampleproject.inventoryservice.config;
+
+import com.myexampleproject.common.dto.OrderLineItemRequest;
+import com.myexampleproject.common.event.*;
+import com.myexampleproject.inventoryservice.service.AdjustmentCompletionRegistry;
+import io.confluent.kafka.schemaregistry.testutil.MockSchemaRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TestOutputTopic;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Chạy InventoryTopology (holds bật) trên TopologyTestDriver: inventory-adjustment-topic do topology ghi
+ * được đưa lại vào chính topology, nên có thể kiểm tra inventory-store sau cả vòng giữ / xác nhận / hoàn kho.
+ */
+class InventoryTopologyTest {
+
+    private static final String REGISTRY_SCOPE = "inventory-topology-test";
+    private static final String SKU = "SKU-A";
+    private static final String HOT_SKU = "HOT";
+
+    @TempDir
+    Path stateDir;
+
+    private TopologyTestDriver driver;
+    private SerdeConfig serdeConfig;
+    private TestInputTopic<String, ProductCreatedEvent> productCreated;
+    private TestInputTopic<String, InventoryAdjustmentEvent> adjustments;
+    private TestInputTopic<String, InventoryCheckRequest> checkRequests;
+    private TestInputTopic<String, PaymentProcessedEvent> paymentProcessed;
+    private TestInputTopic<String, PaymentFailedEvent> paymentFailed;
+    private TestOutputTopic<String, InventoryCheckResult> checkResults;
+    private TestOutputTopic<String, InventoryAdjustmentEvent> adjustmentOutput;
+    private KeyValueStore<String, Long> inventoryStore;
+
+    @AfterEach
+    void tearDown() {
+        if (driver != null) {
+            driver.close();
+        }
+        MockSchemaRegistry.dropScope(REGISTRY_SCOPE);
+    }
+
+    @Test
+    void heldLineIsConfirmedByPayment() {
+        startDriver(Set.of());
+        productCreated.pipeInput(SKU, new ProductCreatedEvent(SKU, 10));
+
+        checkRequests.pipeInput(SKU, request("O-1", SKU, 3));
+
+        InventoryCheckResult result = checkResults.readValue();
+        assertThat(result.isSuccess()).isTrue();
+        assertThat(inventoryStore.get(SKU)).isEqualTo(StockLevel.of(7, 3));
+
+        paymentProcessed.pipeInput("O-1", new PaymentProcessedEvent("O-1", "PAY-1"));
+
+        InventoryAdjustmentEvent confirm = adjustmentOutput.readValue();
+        assertThat(confirm.getAdjustmentQuantity()).isZero();
+        assertThat(confirm.getReservedAdjustment()).isEqualTo(-3);
+        assertThat(inventoryStore.get(SKU)).isEqualTo(StockLevel.of(7, 0));
+    }
+
+    @Test
+    void lineHeldAfterPaymentIsConfirmedRightAway() {
+        startDriver(Set.of());
+        productCreated.pipeInput(SKU, new ProductCreatedEvent(SKU, 10));
+        paymentProcessed.pipeInput("O-7", new PaymentProcessedEvent("O-7", "PAY-7"));
+
+        checkRequests.pipeInput(SKU, request("O-7", SKU, 3));
+
+        InventoryAdjustmentEvent confirm = adjustmentOutput.readValue();
+        assertThat(confirm.getReservedAdjustment()).isEqualTo(-3);
+        assertThat(inventoryStore.get(SKU)).isEqualTo(StockLevel.of(7, 0));
+
+        // Marker CONFIRMED hết hạn: sweep không còn gì để hoàn
+        driver.advanceWallClockTime(Duration.ofMinutes(2));
+        assertThat(adjustmentOutput.isEmpty()).isTrue();
+        assertThat(inventoryStore.get(SKU)).isEqualTo(StockLevel.of(7, 0));
+    }
+
+    @Test
+    void paymentFailureReleasesTheHold() {
+        startDriver(Set.of());
+        productCreated.pipeInput(SKU, new ProductCreatedEvent(SKU, 10));
+        checkRequests.pipeInput(SKU, request("O-2", SKU, 4));
+        assertThat(inventoryStore.get(SKU)).isEqualTo(StockLevel.of(6, 4));
+
+        paymentFailed.pipeInput("O-2", new PaymentFailedEvent("O-2", "Card declined"));
+
+        assertThat(inventoryStore.get(SKU)).isEqualTo(StockLevel.of(10, 0));
+        // Hold đã RELEASED: payment-failed gửi lại không hoàn kho lần 2
+        adjustmentOutput.readValuesToList();
+        paymentFailed.pipeInput("O-2", new PaymentFailedEvent("O-2", "Card declined"));
+        assertThat(adjustmentOutput.isEmpty()).isTrue();
+        assertThat(inventoryStore.get(SKU)).isEqualTo(StockLevel.of(10, 0));
+    }
+
+    @Test
+    void notEnoughStockFailsWithoutHoldingAnything() {
+        startDriver(Set.of());
+        productCreated.pipeInput(SKU, new ProductCreatedEvent(SKU, 10));
+
+        checkRequests.pipeInput(SKU, request("O-3", SKU, 11));
+
+        InventoryCheckResult result = checkResults.readValue();
+        assertThat(result.isSuccess()).isFalse();
+        assertThat(result.getReason()).contains("Not enough stock");
+        assertThat(inventoryStore.get(SKU)).isEqualTo(StockLevel.of(10, 0));
+
+        paymentFailed.pipeInput("O-3", new PaymentFailedEvent("O-3", "Order failed"));
+        assertThat(adjustmentOutput.isEmpty()).isTrue();
+    }
+
+    @Test
+    void reservedOverflowFailsTheLineInsteadOfCorruptingTheStore() {
+        startDriver(Set.of());
+        adjustments.pipeInput(SKU, InventoryAdjustmentEvent.builder()
+                .skuCode(SKU).adjustmentQuantity(10).reservedAdjustment(Integer.MAX_VALUE - 1).build());
+
+        checkRequests.pipeInput(SKU, request("O-4", SKU, 2));
+
+        InventoryCheckResult result = checkResults.readValue();
+        assertThat(result.isSuccess()).isFalse();
+        assertThat(result.getReason()).contains("Cannot reserve");
+        assertThat(inventoryStore.get(SKU)).isEqualTo(StockLevel.of(10, Integer.MAX_VALUE - 1));
+    }
+
+    @Test
+    void expiredHoldIsReleasedByTheSweep() {
+        startDriver(Set.of());
+        productCreated.pipeInput(SKU, new ProductCreatedEvent(SKU, 10));
+        checkRequests.pipeInput(SKU, request("O-5", SKU, 2));
+        assertThat(inventoryStore.get(SKU)).isEqualTo(StockLevel.of(8, 2));
+
+        driver.advanceWallClockTime(Duration.ofMinutes(2));
+
+        InventoryAdjustmentEvent release = adjustmentOutput.readValue();
+        assertThat(release.getReason()).contains("Hold expired");
+        assertThat(inventoryStore.get(SKU)).isEqualTo(StockLevel.of(10, 0));
+    }
+
+    @Test
+    void hotSkuReservationHopsAcrossBuckets() {
+        startDriver(Set.of(HOT_SKU));
+        // 2 bucket: HOT#0 = 3, HOT#1 = 2
+        productCreated.pipeInput(HOT_SKU, new ProductCreatedEvent(HOT_SKU, 5));
+
+        checkRequests.pipeInput(HOT_SKU, request("O-6", HOT_SKU, 4));
+
+        InventoryCheckResult result = checkResults.readValue();
+        assertThat(result.isSuccess()).isTrue();
+        long bucket0 = inventoryStore.get(HOT_SKU + "#0");
+        long bucket1 = inventoryStore.get(HOT_SKU + "#1");
+        assertThat(StockLevel.stock(bucket0) + StockLevel.stock(bucket1)).isEqualTo(1);
+        assertThat(StockLevel.reserved(bucket0) + StockLevel.reserved(bucket1)).isEqualTo(4);
+    }
+
+    private void startDriver(Set<String> hotSkus) {
+        serdeConfig = new SerdeConfig();
+        ReflectionTestUtils.setField(serdeConfig, "schemaRegistryUrl", "mock://" + REGISTRY_SCOPE);
+
+        HotSkuSharding hotSkuSharding = new HotSkuSharding();
+        ReflectionTestUtils.setField(hotSkuSharding, "hotSkus", hotSkus);
+        ReflectionTestUtils.setField(hotSkuSharding, "buckets", 2);
+
+        InventoryTopology topology = new InventoryTopology(
+                serdeConfig, hotSkuSharding, new AdjustmentCompletionRegistry(), new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(topology, "holdsEnabled", true);
+        ReflectionTestUtils.setField(topology, "holdTtl", Duration.ofMinutes(1));
+
+        StreamsBuilder builder = new StreamsBuilder();
+        topology.buildTopology(builder);
+
+        Properties props = new Properties();
+        props.put(StreamsConfig.APPLICATION_ID_CONFIG, "inventory-topology-test");
+        props.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+        props.put(StreamsConfig.STATE_DIR_CONFIG, stateDir.toString());
+        driver = new TopologyTestDriver(builder.build(), props, Instant.ofEpochMilli(0));
+
+        StringSerializer keySerializer = new StringSerializer();
+        productCreated = driver.createInputTopic("product-created-topic", keySerializer,
+                serde(ProductCreatedEvent.class).serializer());
+        adjustments = driver.createInputTopic("inventory-adjustment-topic", keySerializer,
+                serde(InventoryAdjustmentEvent.class).serializer());
+        checkRequests = driver.createInputTopic("inventory-check-request-topic", keySerializer,
+                serde(InventoryCheckRequest.class).serializer());
+        paymentProcessed = driver.createInputTopic("payment-processed-topic", keySerializer,
+                serde(PaymentProcessedEvent.class).serializer());
+        paymentFailed = driver.createInputTopic("payment-failed-topic", keySerializer,
+                serde(PaymentFailedEvent.class).serializer());
+        checkResults = driver.createOutputTopic("inventory-check-result-topic", new StringDeserializer(),
+                serde(InventoryCheckResult.class).deserializer());
+        adjustmentOutput = driver.createOutputTopic("inventory-adjustment-topic", new StringDeserializer(),
+                serde(InventoryAdjustmentEvent.class).deserializer());
+        inventoryStore = driver.getKeyValueStore(InventoryTopology.INVENTORY_STORE);
+    }
+
+    private <T> Serde<T> serde(Class<T> clazz) {
+        return serdeConfig.jsonSchemaSerde(clazz);
+    }
+
+    private static InventoryCheckRequest request(String orderNumber, String sku, int quantity) {
+        return new InventoryCheckRequest(orderNumber, new OrderLineItemRequest(sku, quantity));
+    }
+}
@@ -0,0 +1,92 @@
+package com.myexampleproject.inventoryservice.config;
+
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Serdes;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StockLevelTest {
+
+    private static final String TOPIC = "inventory-store-changelog";
+
+    private final StockLevel.StockLevelSerde serde = new StockLevel.StockLevelSerde();
+
+    @Test
+    void packsStockAndReservedIntoOneLong() {
+        long level = StockLevel.of(120, 7);
+
+        assertThat(StockLevel.stock(level)).isEqualTo(120);
+        assertThat(StockLevel.reserved(level)).isEqualTo(7);
+    }
+
+    @Test
+    void keepsNegativeReservedWithoutTouchingStock() {
+        // Bucket SKU hot có thể lệch âm reserved khi hoàn kho chia đều
+        long level = StockLevel.of(5, -3);
+
+        assertThat(StockLevel.stock(level)).isEqualTo(5);
+        assertThat(StockLevel.reserved(level)).isEqualTo(-3);
+    }
+
+    @Test
+    void applyAddsDeltaAndClampsStockAtZero() {
+        long level = StockLevel.of(10, 2);
+
+        assertThat(StockLevel.apply(level, StockLevel.of(5, -2))).isEqualTo(StockLevel.of(15, 0));
+        assertThat(StockLevel.apply(level, StockLevel.stockDelta(-25))).isEqualTo(StockLevel.of(0, 2));
+    }
+
+    @Test
+    void applyDoesNotOverflowStock() {
+        long level = StockLevel.of(Integer.MAX_VALUE - 1, 0);
+
+        assertThat(StockLevel.stock(StockLevel.apply(level, StockLevel.stockDelta(10)))).isEqualTo(Integer.MAX_VALUE);
+    }
+
+    @Test
+    void reserveMovesQuantityFromStockToReserved() {
+        assertThat(StockLevel.reserve(StockLevel.of(10, 1), 4)).isEqualTo(StockLevel.of(6, 5));
+    }
+
+    @Test
+    void canReserveRejectsMissingStockNegativeQuantityAndReservedOverflow() {
+        assertThat(StockLevel.canReserve(StockLevel.of(3, 0), 3)).isTrue();
+        assertThat(StockLevel.canReserve(StockLevel.of(3, 0), 4)).isFalse();
+        assertThat(StockLevel.canReserve(StockLevel.of(3, 0), -1)).isFalse();
+        assertThat(StockLevel.canReserve(StockLevel.of(10, Integer.MAX_VALUE - 2), 3)).isFalse();
+    }
+
+    @Test
+    void reserveThrowsInsteadOfWritingAnOverflowedLevel() {
+        long level = StockLevel.of(10, Integer.MAX_VALUE);
+
+        assertThatThrownBy(() -> StockLevel.reserve(level, 1)).isInstanceOf(ArithmeticException.class);
+        assertThatThrownBy(() -> StockLevel.reserve(StockLevel.of(1, 0), 2)).isInstanceOf(ArithmeticException.class);
+    }
+
+    @Test
+    void serdeRoundTripsEightBytes() {
+        long level = StockLevel.of(-1, Integer.MIN_VALUE);
+
+        byte[] bytes = serde.serialize(TOPIC, level);
+
+        assertThat(bytes).hasSize(StockLevel.SIZE_BYTES);
+        assertThat(serde.deserialize(TOPIC, bytes)).isEqualTo(level);
+        assertThat(serde.serialize(TOPIC, null)).isNull();
+        assertThat(serde.deserialize(TOPIC, null)).isNull();
+    }
+
+    @Test
+    void serdeReadsLegacyIntegerValuesAsStockOnly() {
+        byte[] legacy = Serdes.Integer().serializer().serialize(TOPIC, 42);
+
+        assertThat(serde.deserialize(TOPIC, legacy)).isEqualTo(StockLevel.of(42, 0));
+    }
+
+    @Test
+    void serdeRejectsOtherSizes() {
+        assertThatThrownBy(() -> serde.deserialize(TOPIC, new byte[3])).isInstanceOf(SerializationException.class);
+    }
+}
@@ -1,13 +1,17 @@
 package com.myexampleproject.orderservice;
 
+import com.myexampleproject.common.cache.ProductCatalogCache;
 import com.myexampleproject.common.exception.GlobalExceptionHandler;
+import com.myexampleproject.common.security.JwtDecoderConfig;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
-@Import({ GlobalExceptionHandler.class })
+@Import({ GlobalExceptionHandler.class, JwtDecoderConfig.class, ProductCatalogCache.class })
+@EnableScheduling // OrderOutboxRelay
 public class OrderServiceApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,48 @@
+package com.myexampleproject.orderservice.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Đẩy các bảng sequence (t_orders_seq, t_orders_line_items_seq) lên trên MAX(id) hiện có.
+ *
+ * Khi chuyển từ IDENTITY sang SEQUENCE, ddl-auto=update tạo bảng sequence mới bắt đầu từ 1
+ * trong khi t_orders / t_orders_line_items đã có dữ liệu -> INSERT sẽ trùng khóa chính.
+ * Chạy lúc khởi động (sau khi Hibernate cập nhật schema, trước khi Kafka listener chạy),
+ * dùng GREATEST nên chạy lại nhiều lần / nhiều instance cùng lúc đều an toàn.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IdSequenceInitializer {
+
+    // Phải giống allocationSize trong @SequenceGenerator của Order / OrderLineItems
+    private static final int ALLOCATION_SIZE = 50;
+
+    private final JdbcTemplate jdbcTemplate;
+    // Chỉ để chắc chắn schema đã được Hibernate tạo / cập nhật trước khi seed
+    private final EntityManagerFactory entityManagerFactory;
+
+    @PostConstruct
+    public void seedSequences() {
+        seed("t_orders_seq", "t_orders");
+        seed("t_orders_line_items_seq", "t_orders_line_items");
+    }
+
+    private void seed(String sequenceTable, String entityTable) {
+        // +1: pooled optimizer cấp các id trong khoảng (next_val - allocationSize, next_val]
+        int updated = jdbcTemplate.update(
+                "UPDATE " + sequenceTable + " SET next_val = GREATEST(next_val, "
+                        + "(SELECT COALESCE(MAX(id), 0) FROM " + entityTable + ") + ?)",
+                ALLOCATION_SIZE + 1);
+        if (updated == 0) {
+            jdbcTemplate.update("INSERT INTO " + sequenceTable + " (next_val) "
+                    + "SELECT COALESCE(MAX(id), 0) + ? FROM " + entityTable, ALLOCATION_SIZE + 1);
+        }
+        log.info("Sequence {} seeded above MAX(id) of {}", sequenceTable, entityTable);
+    }
+}
@@ -1,6 +1,9 @@
 package com.myexampleproject.orderservice.config;
 
+import com.myexampleproject.orderservice.service.LocalSagaStateStore;
 import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.common.config.TopicConfig;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.config.TopicBuilder;
@@ -15,4 +18,15 @@ public class KafkaConfig {
                 .replicas(1)
                 .build();
     }
+
+    // Changelog của state SAGA cục bộ: compacted, cùng số partition với inventory-check-result-topic
+    @Bean
+    @ConditionalOnProperty(name = "saga.state.mode", havingValue = "local")
+    public NewTopic orderSagaStateChangelogTopic() {
+        return TopicBuilder.name(LocalSagaStateStore.CHANGELOG_TOPIC)
+                .partitions(10)
+                .replicas(1)
+                .config(TopicConfig.CLEANUP_POLICY_CONFIG, TopicConfig.CLEANUP_POLICY_COMPACT)
+                .build();
+    }
 }
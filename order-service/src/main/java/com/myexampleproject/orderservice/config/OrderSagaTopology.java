@@ -0,0 +1,250 @@
+package com.myexampleproject.orderservice.config;
+
+import com.myexampleproject.common.dto.OrderLineItemRequest;
+import com.myexampleproject.common.event.*;
+import com.myexampleproject.orderservice.service.SagaOutcome;
+import io.confluent.kafka.serializers.AbstractKafkaSchemaSerDeConfig;
+import io.confluent.kafka.streams.serdes.json.KafkaJsonSchemaSerde;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.common.serialization.Serde;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.kstream.Consumed;
+import org.apache.kafka.streams.kstream.KStream;
+import org.apache.kafka.streams.kstream.Produced;
+import org.apache.kafka.streams.processor.PunctuationType;
+import org.apache.kafka.streams.processor.api.ContextualProcessor;
+import org.apache.kafka.streams.processor.api.ProcessorContext;
+import org.apache.kafka.streams.processor.api.Record;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.state.Stores;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.KafkaStreamsConfiguration;
+import org.springframework.kafka.config.StreamsBuilderFactoryBean;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SAGA kiểm kho bằng Kafka Streams (saga.state.mode=streams).
+ *
+ * order-placed-topic và inventory-check-result-topic đều key theo orderNumber (co-partitioned),
+ * nên 2 processor dùng chung 1 state store RocksDB "order-saga-store" theo từng đơn hàng.
+ * Khi đếm đủ kết quả -> OrderValidatedEvent, gặp kết quả lỗi -> OrderFailedEvent ngay.
+ * Punctuator (wall-clock) quét các SAGA quá hạn và báo FAILED thay cho TTL của Redis.
+ *
+ * Chạy trong 1 KafkaStreams riêng (application.id = ${spring.application.name}-saga) với exactly_once_v2:
+ * state store và OrderValidated/OrderFailedEvent được commit cùng nhau. Topology mặc định
+ * (OrderStatusJoiner) vẫn giữ processing.guarantee mặc định.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "saga.state.mode", havingValue = "streams")
+public class OrderSagaTopology {
+
+    public static final String SAGA_STORE = "order-saga-store";
+    public static final String SAGA_STREAMS_BUILDER = "orderSagaStreamsBuilder";
+    private static final Duration SAGA_TIMEOUT = Duration.ofMinutes(10);
+    private static final Duration PUNCTUATE_INTERVAL = Duration.ofSeconds(30);
+
+    @Value("${spring.kafka.properties.schema.registry.url}")
+    private String schemaRegistryUrl;
+
+    @Value("${spring.kafka.bootstrap-servers}")
+    private String bootstrapServers;
+
+    @Value("${spring.application.name}")
+    private String applicationName;
+
+    @Value("${spring.kafka.streams.properties.state.dir}")
+    private String stateDir;
+
+    private <T> Serde<T> jsonSerde(Class<T> clazz) {
+        Serde<T> serde = new KafkaJsonSchemaSerde<>(clazz);
+        serde.configure(Map.of(AbstractKafkaSchemaSerDeConfig.SCHEMA_REGISTRY_URL_CONFIG, schemaRegistryUrl), false);
+        return serde;
+    }
+
+    @Bean(name = SAGA_STREAMS_BUILDER)
+    public StreamsBuilderFactoryBean orderSagaStreamsBuilder() {
+        Map<String, Object> props = new HashMap<>();
+        props.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, bootstrapServers);
+        props.put(StreamsConfig.APPLICATION_ID_CONFIG, applicationName + "-saga");
+        props.put(StreamsConfig.STATE_DIR_CONFIG, stateDir);
+
+        // GUARANTEE: chỉ topology SAGA
+        props.put(StreamsConfig.PROCESSING_GUARANTEE_CONFIG, StreamsConfig.EXACTLY_ONCE_V2);
+
+        // SERDES (topology luôn truyền serde tường minh)
+        props.put(StreamsConfig.DEFAULT_KEY_SERDE_CLASS_CONFIG, Serdes.StringSerde.class);
+        props.put(StreamsConfig.DEFAULT_VALUE_SERDE_CLASS_CONFIG, Serdes.StringSerde.class);
+
+        return new StreamsBuilderFactoryBean(new KafkaStreamsConfiguration(props));
+    }
+
+    @Bean
+    public KStream<String, SagaOutcome> orderSagaStream(@Qualifier(SAGA_STREAMS_BUILDER) StreamsBuilder builder) {
+        builder.addStateStore(Stores.keyValueStoreBuilder(
+                Stores.persistentKeyValueStore(SAGA_STORE),
+                Serdes.String(),
+                jsonSerde(OrderSagaState.class)
+        ));
+
+        // 1️⃣ Đơn mới: biết tổng số dòng cần chờ
+        KStream<String, SagaOutcome> fromPlaced = builder
+                .stream("order-placed-topic", Consumed.with(Serdes.String(), jsonSerde(OrderPlacedEvent.class)))
+                .process(PlacedProcessor::new, SAGA_STORE);
+
+        // 2️⃣ Kết quả kiểm kho từng dòng
+        KStream<String, SagaOutcome> fromResults = builder
+                .stream("inventory-check-result-topic", Consumed.with(Serdes.String(), jsonSerde(InventoryCheckResult.class)))
+                .process(ResultProcessor::new, SAGA_STORE);
+
+        KStream<String, SagaOutcome> outcomes = fromPlaced.merge(fromResults);
+
+        // 3️⃣ Gửi kết quả cuối cùng của SAGA
+        outcomes.filter((orderNumber, outcome) -> outcome.isValidated())
+                .mapValues(outcome -> new OrderValidatedEvent(outcome.getOrderNumber(), outcome.getItems()))
+                .to("order-validated-topic", Produced.with(Serdes.String(), jsonSerde(OrderValidatedEvent.class)));
+
+        outcomes.filterNot((orderNumber, outcome) -> outcome.isValidated())
+                .mapValues(outcome -> new OrderFailedEvent(outcome.getOrderNumber(), outcome.getReason()))
+                .to("order-failed-topic", Produced.with(Serdes.String(), jsonSerde(OrderFailedEvent.class)));
+
+        log.info("=== ORDER SAGA TOPOLOGY LOADED OK ===");
+        return outcomes;
+    }
+
+    /**
+     * Phần chung của 2 processor: đọc/ghi state và quyết định SAGA đã xong chưa.
+     */
+    private abstract static class SagaProcessor<V> extends ContextualProcessor<String, V, String, SagaOutcome> {
+
+        protected KeyValueStore<String, OrderSagaState> store;
+
+        @Override
+        public void init(ProcessorContext<String, SagaOutcome> context) {
+            super.init(context);
+            this.store = context.getStateStore(SAGA_STORE);
+        }
+
+        protected OrderSagaState getOrCreate(String orderNumber) {
+            OrderSagaState state = store.get(orderNumber);
+            return state != null ? state : OrderSagaState.startedAt(context().currentSystemTimeMs());
+        }
+
+        protected void save(String orderNumber, OrderSagaState state, long timestamp) {
+            // totalItems = -1: kết quả tới trước OrderPlacedEvent, chờ tiếp
+            if (state.getTotalItems() < 0 || state.getReceivedItems() < state.getTotalItems()) {
+                store.put(orderNumber, state);
+                return;
+            }
+            store.delete(orderNumber);
+            if (!state.isFailed()) {
+                log.info("SAGA COMPLETE: Order {} passed all inventory checks.", orderNumber);
+                context().forward(new Record<>(orderNumber, SagaOutcome.validated(orderNumber, state.getItems()), timestamp));
+            }
+        }
+    }
+
+    private static class PlacedProcessor extends SagaProcessor<OrderPlacedEvent> {
+
+        @Override
+        public void process(Record<String, OrderPlacedEvent> record) {
+            OrderPlacedEvent placed = record.value();
+            if (placed == null) {
+                return;
+            }
+            String orderNumber = placed.getOrderNumber();
+            OrderSagaState state = getOrCreate(orderNumber);
+            state.setTotalItems(placed.getOrderLineItemsDtoList().size());
+            state.setItems(placed.getOrderLineItemsDtoList());
+            save(orderNumber, state, record.timestamp());
+        }
+    }
+
+    private static class ResultProcessor extends SagaProcessor<InventoryCheckResult> {
+
+        @Override
+        public void init(ProcessorContext<String, SagaOutcome> context) {
+            super.init(context);
+            // Chỉ 1 processor / task lập lịch quét timeout
+            context.schedule(PUNCTUATE_INTERVAL, PunctuationType.WALL_CLOCK_TIME, this::expireStaleSagas);
+        }
+
+        @Override
+        public void process(Record<String, InventoryCheckResult> record) {
+            InventoryCheckResult result = record.value();
+            if (result == null) {
+                return;
+            }
+            String orderNumber = result.getOrderNumber();
+            OrderSagaState state = getOrCreate(orderNumber);
+            state.setReceivedItems(state.getReceivedItems() + 1);
+
+            if (state.isFailed()) {
+                log.info("SAGA: Order {} already marked failed. Ignoring.", orderNumber);
+            } else if (!result.isSuccess()) {
+                log.warn("SAGA: Inventory check FAILED for Order {}, SKU {}. Reason: {}",
+                        orderNumber, result.getItem().getSkuCode(), result.getReason());
+                state.setFailed(true);
+                context().forward(new Record<>(orderNumber, SagaOutcome.failed(orderNumber, result.getReason()), record.timestamp()));
+            }
+            save(orderNumber, state, record.timestamp());
+        }
+
+        private void expireStaleSagas(long now) {
+            List<KeyValue<String, OrderSagaState>> expired = new ArrayList<>();
+            try (KeyValueIterator<String, OrderSagaState> it = store.all()) {
+                while (it.hasNext()) {
+                    KeyValue<String, OrderSagaState> entry = it.next();
+                    if (now - entry.value.getStartedAt() > SAGA_TIMEOUT.toMillis()) {
+                        expired.add(entry);
+                    }
+                }
+            }
+
+            for (KeyValue<String, OrderSagaState> entry : expired) {
+                store.delete(entry.key);
+                // Đơn đã FAILED thì đã báo rồi, chỉ dọn state
+                if (!entry.value.isFailed()) {
+                    log.warn("SAGA TIMEOUT: Order {} ({}/{} results)", entry.key,
+                            entry.value.getReceivedItems(), entry.value.getTotalItems());
+                    context().forward(new Record<>(entry.key,
+                            SagaOutcome.failed(entry.key, "Inventory check timed out"), now));
+                }
+            }
+        }
+    }
+
+    /**
+     * Value của order-saga-store.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class OrderSagaState {
+        private int totalItems;      // -1 = chưa nhận OrderPlacedEvent
+        private int receivedItems;
+        private boolean failed;
+        private long startedAt;
+        private List<OrderLineItemRequest> items;
+
+        static OrderSagaState startedAt(long now) {
+            return new OrderSagaState(-1, 0, false, now, null);
+        }
+    }
+}
@@ -6,10 +6,12 @@ import org.apache.kafka.common.serialization.Serde;
 import org.apache.kafka.common.serialization.Serdes;
 import org.apache.kafka.streams.StreamsBuilder;
 import org.apache.kafka.streams.kstream.*;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.kafka.annotation.EnableKafkaStreams;
+import org.springframework.kafka.annotation.KafkaStreamsDefaultConfiguration;
 import io.confluent.kafka.streams.serdes.json.KafkaJsonSchemaSerde;
 import io.confluent.kafka.serializers.AbstractKafkaSchemaSerDeConfig;
 
@@ -30,7 +32,8 @@ public class OrderStatusJoiner {
     }
 
     @Bean
-    public KStream<String, PaymentProcessedEvent> joinPaymentAndOrderStatus(StreamsBuilder builder) throws InterruptedException {
+    public KStream<String, PaymentProcessedEvent> joinPaymentAndOrderStatus(
+            @Qualifier(KafkaStreamsDefaultConfiguration.DEFAULT_STREAMS_BUILDER_BEAN_NAME) StreamsBuilder builder) throws InterruptedException {
         Serde<OrderStatusEvent> statusSerde = jsonSerde(OrderStatusEvent.class);
         Serde<PaymentProcessedEvent> paymentSerde = jsonSerde(PaymentProcessedEvent.class);
 
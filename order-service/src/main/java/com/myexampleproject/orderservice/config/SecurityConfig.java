@@ -1,12 +1,15 @@
 package com.myexampleproject.orderservice.config;
 
+import com.myexampleproject.common.security.GatewayIdentityFilter;
+import com.myexampleproject.common.security.GatewayIdentityVerifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
-import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+import org.springframework.security.oauth2.server.resource.web.authentication.BearerTokenAuthenticationFilter;
 import org.springframework.security.web.SecurityFilterChain;
 
 @Configuration
@@ -14,7 +17,7 @@ import org.springframework.security.web.SecurityFilterChain;
 public class SecurityConfig {
 
     @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain filterChain(HttpSecurity http, GatewayIdentityVerifier gatewayIdentityVerifier) throws Exception {
         http
                 // 1. Tắt CSRF (vì chúng ta dùng API)
                 .csrf(csrf -> csrf.disable())
@@ -25,18 +28,33 @@ public class SecurityConfig {
                         .requestMatchers("/v3/api-docs/**").permitAll()
                         .requestMatchers("/swagger-ui/**").permitAll()
                         .requestMatchers("/swagger-ui.html").permitAll()
+                        // Xuất / liệt kê đơn của mọi user: chỉ ADMIN (user thường dùng /api/order/me)
+                        .requestMatchers(HttpMethod.GET, "/api/order/export").hasRole("ADMIN")
+                        .requestMatchers(HttpMethod.GET, "/api/order").hasRole("ADMIN")
                         .requestMatchers(HttpMethod.GET, "/api/order/**").permitAll()
                         .requestMatchers(HttpMethod.POST, "/api/order").authenticated()
                         .anyRequest().authenticated() // <-- BẮT BUỘC TẤT CẢ
                 )
 
                 // 3. Cấu hình để xác thực JWT (đọc token)
-                .oauth2ResourceServer(oauth2 -> oauth2.jwt(Customizer.withDefaults()))
+                // (role lấy từ realm_access.roles của Keycloak)
+                .oauth2ResourceServer(oauth2 -> oauth2
+                        .jwt(jwt -> jwt.jwtAuthenticationConverter(jwtAuthenticationConverter())))
 
                 // 4. Bắt buộc stateless (không dùng session)
                 .sessionManagement(session -> session
                         .sessionCreationPolicy(SessionCreationPolicy.STATELESS));
 
+        // 5. Trusted-gateway: tin header định danh do gateway ký (security.trusted-gateway.enabled)
+        http.addFilterBefore(new GatewayIdentityFilter(gatewayIdentityVerifier, jwtAuthenticationConverter()),
+                BearerTokenAuthenticationFilter.class);
+
         return http.build();
     }
+
+    private JwtAuthenticationConverter jwtAuthenticationConverter() {
+        JwtAuthenticationConverter converter = new JwtAuthenticationConverter();
+        converter.setJwtGrantedAuthoritiesConverter(new KeycloakJwtRoleConverter());
+        return converter;
+    }
 }
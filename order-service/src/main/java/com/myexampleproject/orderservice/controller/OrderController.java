@@ -1,7 +1,13 @@
 package com.myexampleproject.orderservice.controller;
 
 // === IMPORT MỚI CẦN THÊM ===
+import com.myexampleproject.orderservice.dto.CursorPage;
+import com.myexampleproject.orderservice.dto.OrderFilter;
 import com.myexampleproject.orderservice.dto.OrderResponse;
+import com.myexampleproject.orderservice.dto.OrderSummary;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 // === KẾT THÚC IMPORT MỚI ===
@@ -11,17 +17,20 @@ import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
 
 import com.myexampleproject.orderservice.dto.OrderRequest;
+import com.myexampleproject.orderservice.service.OrderExporter;
 import com.myexampleproject.orderservice.service.OrderService;
 
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.security.Principal;
-import java.util.List;
+import java.time.LocalDateTime;
 import java.util.Map;
 
 @RestController
@@ -31,6 +40,10 @@ import java.util.Map;
 public class OrderController {
 
     private final OrderService orderService;
+    private final OrderExporter orderExporter;
+
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 200;
 
     @PostMapping
     @ResponseStatus(HttpStatus.ACCEPTED)
@@ -46,6 +59,21 @@ public class OrderController {
         return Map.of("orderNumber", orderNumber, "message", "Order Received");
     }
 
+    // Lịch sử đơn của user đang đăng nhập: GET /api/order/me?cursor=&size=
+    @GetMapping("/me")
+    @ResponseStatus(HttpStatus.OK)
+    public CursorPage<OrderSummary> getMyOrders(Principal principal,
+                                                @RequestParam(required = false) String cursor,
+                                                @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int size) {
+        if (principal == null) {
+            throw new ResponseStatusException(HttpStatus.UNAUTHORIZED, "Bạn cần đăng nhập để xem đơn hàng");
+        }
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size phải từ 1 đến " + MAX_PAGE_SIZE);
+        }
+        return orderService.findUserOrders(principal.getName(), cursor, size);
+    }
+
     // ==========================================================
     // === PHƯƠNG THỨC GET MỚI CẦN BỔ SUNG ===
     // ==========================================================
@@ -56,9 +84,32 @@ public class OrderController {
         return orderService.getOrderDetails(orderNumber);
     }
 
+    // GET /api/order?userId=&status=&from=&to=&cursor=&size= -> { items: [...], nextCursor: "..." }
     @GetMapping
     @ResponseStatus(HttpStatus.OK)
-    public List<OrderResponse> getAllOrders() {
-        return orderService.getAllOrders();
+    public CursorPage<OrderResponse> getOrders(
+            @RequestParam(required = false) String userId,
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(defaultValue = "" + DEFAULT_PAGE_SIZE) int size) {
+        if (size < 1 || size > MAX_PAGE_SIZE) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "size phải từ 1 đến " + MAX_PAGE_SIZE);
+        }
+        return orderService.findOrders(new OrderFilter(userId, status, from, to), cursor, size);
+    }
+
+    // Xuất toàn bộ đơn khớp bộ lọc dạng NDJSON, stream từng trang (không giữ hết trong heap)
+    @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> exportOrders(
+            @RequestParam(required = false) String userId,
+            @RequestParam(required = false) String status,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime from,
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime to) {
+        OrderFilter filter = new OrderFilter(userId, status, from, to);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(out -> orderExporter.exportOrders(filter, out));
     }
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package com.myexampleproject.orderservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 1 trang kết quả phân trang keyset. nextCursor = null nghĩa là đã hết dữ liệu;
+ * trang sau được lấy bằng cách gửi lại nextCursor qua tham số "cursor".
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CursorPage<T> {
+    private List<T> items;
+    private String nextCursor;
+}
@@ -0,0 +1,22 @@
+package com.myexampleproject.orderservice.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Bộ lọc cho danh sách đơn hàng (GET /api/order và /api/order/export). Trường null = không lọc.
+ */
+@Data
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class OrderFilter {
+    private String userId;
+    private String status;
+    private LocalDateTime from; // orderDate >= from
+    private LocalDateTime to;   // orderDate < to
+}
@@ -0,0 +1,27 @@
+package com.myexampleproject.orderservice.dto;
+
+import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+
+/**
+ * Dòng trong lịch sử đơn của user (GET /api/order/me): không có dòng hàng,
+ * mọi cột đều nằm trong index idx_orders_user_date nên truy vấn không phải đọc bảng.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class OrderSummary {
+    @JsonIgnore
+    private Long id; // Chỉ dùng để tạo cursor
+    private String orderNumber;
+    private String status;
+    private BigDecimal totalPrice;
+    @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss")
+    private LocalDateTime orderDate;
+}
@@ -14,14 +14,23 @@ import org.hibernate.annotations.CreationTimestamp;
 
 @Entity
 @Table(name="t_orders", uniqueConstraints = {
-        @UniqueConstraint(columnNames = {"orderNumber"})})
+        @UniqueConstraint(columnNames = {"orderNumber"})},
+        // Lịch sử đơn của user (GET /api/order/me): lọc userId, sắp orderDate giảm dần,
+        // các cột còn lại để index "phủ" được projection OrderSummary
+        // GET /api/order (ADMIN) sắp theo (orderDate, id) giảm dần: lọc theo status hoặc chỉ theo khoảng ngày
+        indexes = {
+        @Index(name = "idx_orders_user_date", columnList = "userId, orderDate DESC, id DESC, orderNumber, status, totalPrice"),
+        @Index(name = "idx_orders_status_date", columnList = "status, orderDate DESC, id DESC"),
+        @Index(name = "idx_orders_date", columnList = "orderDate DESC, id DESC")})
 @Getter
 @Setter
 @NoArgsConstructor
 @AllArgsConstructor
 public class Order {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    // Sequence + pooled optimizer (MySQL: bảng t_orders_seq): Hibernate cấp sẵn 50 id / lần nên INSERT mới gom batch được (IDENTITY thì không)
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_seq")
+    @SequenceGenerator(name = "order_seq", sequenceName = "t_orders_seq", allocationSize = 50)
     private Long id;
 
     // Lưu ID của user đã đặt hàng (có thể là keycloakId hoặc ID từ UserService)
@@ -18,7 +18,9 @@ import lombok.Setter;
 @AllArgsConstructor
 public class OrderLineItems {
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY )
+	// Sequence + pooled optimizer (MySQL: bảng t_orders_line_items_seq): Hibernate cấp sẵn 50 id / lần nên INSERT mới gom batch được (IDENTITY thì không)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_line_item_seq")
+	@SequenceGenerator(name = "order_line_item_seq", sequenceName = "t_orders_line_items_seq", allocationSize = 50)
 	private Long id;
 	//Mã sản phẩm (SKU) của dòng sản phẩm trong đơn hàng.
 	private String skuCode;
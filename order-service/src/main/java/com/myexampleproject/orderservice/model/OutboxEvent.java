@@ -0,0 +1,50 @@
+package com.myexampleproject.orderservice.model;
+
+import java.time.LocalDateTime;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.CreationTimestamp;
+
+/**
+ * 1 message Kafka chờ gửi, được ghi CÙNG transaction với thay đổi của Order (transactional outbox).
+ * OrderOutboxRelay nhận (claim) theo chunk, gửi rồi đánh dấu sentAt.
+ */
+@Entity
+@Table(name = "t_order_outbox", indexes = {
+        @Index(name = "idx_outbox_unsent", columnList = "sentAt, id")})
+@Getter
+@Setter
+@NoArgsConstructor
+@AllArgsConstructor
+public class OutboxEvent {
+    @Id
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "order_outbox_seq")
+    @SequenceGenerator(name = "order_outbox_seq", sequenceName = "t_order_outbox_seq", allocationSize = 50)
+    private Long id;
+
+    @Column(nullable = false)
+    private String topic;
+    private String messageKey;
+
+    // Tên class của event để relay dựng lại đúng kiểu (JSON Schema serializer cần object có kiểu)
+    @Column(nullable = false)
+    private String payloadType;
+
+    @Lob
+    @Column(nullable = false, columnDefinition = "TEXT")
+    private String payload;
+
+    @CreationTimestamp
+    private LocalDateTime createdAt;
+    private LocalDateTime sentAt;
+    // Payload không dựng lại được: relay không gửi nữa, giữ lại để xử lý tay (metric order_outbox_failed_total)
+    private LocalDateTime failedAt;
+
+    // Instance relay đang gửi message này (nhận trong 1 transaction ngắn, gửi Kafka ngoài transaction)
+    private String claimedBy;
+    private LocalDateTime claimedAt;
+}
@@ -1,17 +1,58 @@
 package com.myexampleproject.orderservice.repository;
 
+import jakarta.persistence.LockModeType;
+import com.myexampleproject.orderservice.dto.OrderSummary;
+import com.myexampleproject.orderservice.model.OrderLineItems;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
 
 import com.myexampleproject.orderservice.model.Order;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
-public interface OrderRepository extends JpaRepository<Order, Long> {
+public interface OrderRepository extends JpaRepository<Order, Long>, JpaSpecificationExecutor<Order> {
     Optional<Order> findByOrderNumber(String orderNumber);
 
     // Sử dụng "LEFT JOIN FETCH" để lấy luôn orderLineItemsList trong 1 câu lệnh SQL
     @Query("SELECT o FROM Order o LEFT JOIN FETCH o.orderLineItemsList WHERE o.orderNumber = :orderNumber")
     Optional<Order> findByOrderNumberWithItems(@Param("orderNumber") String orderNumber);
+
+    // Lịch sử đơn của user, keyset theo (orderDate, id) giảm dần - dùng index idx_orders_user_date
+    @Query("SELECT new com.myexampleproject.orderservice.dto.OrderSummary(o.id, o.orderNumber, o.status, o.totalPrice, o.orderDate) " +
+            "FROM Order o WHERE o.userId = :userId ORDER BY o.orderDate DESC, o.id DESC")
+    List<OrderSummary> findSummariesByUserId(@Param("userId") String userId, Pageable pageable);
+
+    @Query("SELECT new com.myexampleproject.orderservice.dto.OrderSummary(o.id, o.orderNumber, o.status, o.totalPrice, o.orderDate) " +
+            "FROM Order o WHERE o.userId = :userId " +
+            "AND (o.orderDate < :orderDate OR (o.orderDate = :orderDate AND o.id < :id)) " +
+            "ORDER BY o.orderDate DESC, o.id DESC")
+    List<OrderSummary> findSummariesByUserIdBefore(@Param("userId") String userId,
+                                                   @Param("orderDate") LocalDateTime orderDate,
+                                                   @Param("id") Long id,
+                                                   Pageable pageable);
+
+    // Dòng hàng của cả 1 trang đơn trong 1 câu lệnh (tránh N+1 khi duyệt orderLineItemsList từng đơn)
+    @Query("SELECT i FROM OrderLineItems i WHERE i.order.id IN :orderIds ORDER BY i.id")
+    List<OrderLineItems> findLineItemsByOrderIds(@Param("orderIds") Collection<Long> orderIds);
+
+    @Query("SELECT DISTINCT o FROM Order o LEFT JOIN FETCH o.orderLineItemsList WHERE o.orderNumber IN :orderNumbers")
+    List<Order> findAllByOrderNumberInWithItems(@Param("orderNumbers") Collection<String> orderNumbers);
+
+    // Dùng cho chuyển trạng thái hàng loạt: SELECT ... FOR UPDATE các đơn đang ở trạng thái cho phép
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @Query("SELECT o.orderNumber FROM Order o WHERE o.orderNumber IN :orderNumbers AND o.status IN :fromStatuses")
+    List<String> lockOrderNumbersInStatus(@Param("orderNumbers") Collection<String> orderNumbers,
+                                          @Param("fromStatuses") Collection<String> fromStatuses);
+
+    @Modifying(flushAutomatically = true, clearAutomatically = true)
+    @Query("UPDATE Order o SET o.status = :status WHERE o.orderNumber IN :orderNumbers")
+    int updateStatus(@Param("orderNumbers") Collection<String> orderNumbers, @Param("status") String status);
 }
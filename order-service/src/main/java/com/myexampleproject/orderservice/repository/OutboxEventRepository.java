@@ -0,0 +1,46 @@
+package com.myexampleproject.orderservice.repository;
+
+import com.myexampleproject.orderservice.model.OutboxEvent;
+import jakarta.persistence.LockModeType;
+import jakarta.persistence.QueryHint;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    // FOR UPDATE SKIP LOCKED (lock timeout -2 của Hibernate): các instance relay nhận song song các chunk khác nhau
+    // thay vì xếp hàng sau 1 lock. Dòng đang được relay khác gửi (claim chưa quá hạn) bị bỏ qua.
+    // Chỉ dùng trong transaction claim ngắn (READ COMMITTED, không gap lock) -> không chặn INSERT vào outbox
+    @Lock(LockModeType.PESSIMISTIC_WRITE)
+    @QueryHints(@QueryHint(name = "jakarta.persistence.lock.timeout", value = "-2"))
+    @Query("SELECT e FROM OutboxEvent e WHERE e.sentAt IS NULL AND e.failedAt IS NULL"
+            + " AND (e.claimedAt IS NULL OR e.claimedAt < :staleBefore OR e.claimedBy = :relayId) ORDER BY e.id")
+    List<OutboxEvent> lockClaimable(@Param("relayId") String relayId, @Param("staleBefore") LocalDateTime staleBefore,
+                                    Pageable pageable);
+
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.claimedBy = :claimedBy, e.claimedAt = :claimedAt WHERE e.id IN :ids")
+    int markClaimed(@Param("ids") Collection<Long> ids, @Param("claimedBy") String claimedBy,
+                    @Param("claimedAt") LocalDateTime claimedAt);
+
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.sentAt = :sentAt WHERE e.id IN :ids")
+    int markSent(@Param("ids") Collection<Long> ids, @Param("sentAt") LocalDateTime sentAt);
+
+    @Modifying
+    @Query("UPDATE OutboxEvent e SET e.failedAt = :failedAt WHERE e.id IN :ids")
+    int markFailed(@Param("ids") Collection<Long> ids, @Param("failedAt") LocalDateTime failedAt);
+
+    @Modifying
+    @Query("DELETE FROM OutboxEvent e WHERE e.sentAt < :cutoff")
+    int deleteSentBefore(@Param("cutoff") LocalDateTime cutoff);
+}
@@ -0,0 +1,289 @@
+package com.myexampleproject.orderservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.myexampleproject.common.dto.OrderLineItemRequest;
+import com.myexampleproject.common.event.InventoryCheckResult;
+import com.myexampleproject.common.event.OrderPlacedEvent;
+import jakarta.annotation.PostConstruct;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * State SAGA giữ ngay trong RAM của consumer order-saga-group, không cần Redis.
+ *
+ * inventory-check-result-topic và order-placed-topic đều key theo orderNumber và có cùng số partition,
+ * nên (với RangeAssignor) partition p của 2 topic luôn về cùng 1 consumer: consumer đó biết
+ * totalItems từ OrderPlacedEvent và đếm kết quả từ InventoryCheckResult mà không cần chia sẻ state.
+ *
+ * Mọi thay đổi được ghi vào topic compacted order-saga-state-changelog (cùng partition với đơn hàng),
+ * khi được gán partition mới thì đọc lại changelog để dựng lại state.
+ */
+@Slf4j
+@Component("sagaStateStore")
+@ConditionalOnProperty(name = "saga.state.mode", havingValue = "local")
+@RequiredArgsConstructor
+public class LocalSagaStateStore implements SagaStateStore {
+
+    public static final String CHANGELOG_TOPIC = "order-saga-state-changelog";
+    private static final String RESULT_TOPIC = "inventory-check-result-topic";
+    private static final String PLACED_TOPIC = "order-placed-topic";
+
+    // Giống TTL 10 phút của bản Redis
+    private static final long SAGA_TTL_MS = Duration.ofMinutes(10).toMillis();
+    private static final long SWEEP_INTERVAL_MS = Duration.ofSeconds(30).toMillis();
+
+    private final KafkaTemplate<String, Object> kafkaTemplate;
+    private final ConsumerFactory<String, Object> consumerFactory;
+    private final ObjectMapper objectMapper;
+
+    // partition -> (orderNumber -> state). Mỗi partition chỉ do đúng 1 consumer thread xử lý.
+    private final Map<Integer, Map<String, SagaRecord>> partitions = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> lastSweepAt = new ConcurrentHashMap<>();
+    // Partition bị thu hồi nhưng chưa biết có được gán lại không (eager rebalance)
+    private final Set<Integer> pendingRevoked = ConcurrentHashMap.newKeySet();
+
+    // order: không có InventoryCheckResult từng dòng để đếm -> không dùng được store này
+    @Value("${inventory.reservation.mode:per-line}")
+    private String reservationMode;
+
+    @PostConstruct
+    public void validateMode() {
+        if ("order".equals(reservationMode)) {
+            throw new IllegalStateException(
+                    "saga.state.mode=local không dùng được với inventory.reservation.mode=order");
+        }
+    }
+
+    @Override
+    public boolean start(String orderNumber, List<OrderLineItemRequest> items) {
+        // Không làm gì: totalItems được lấy từ chính OrderPlacedEvent mà SAGA listener subscribe.
+        return false;
+    }
+
+    @Override
+    public String[] sourceTopics() {
+        return new String[]{RESULT_TOPIC, PLACED_TOPIC};
+    }
+
+    @Override
+    public List<SagaOutcome> apply(List<ConsumerRecord<String, Object>> records) {
+        long now = System.currentTimeMillis();
+        List<SagaOutcome> outcomes = new ArrayList<>();
+        // Chỉ ghi changelog 1 lần / đơn / batch (bản cuối cùng), null = tombstone
+        Map<String, SagaRecord> dirty = new LinkedHashMap<>();
+        Map<String, Integer> dirtyPartition = new HashMap<>();
+
+        for (ConsumerRecord<String, Object> record : records) {
+            try {
+                int partition = record.partition();
+                Map<String, SagaRecord> owned = partitions.computeIfAbsent(partition, p -> new ConcurrentHashMap<>());
+
+                String orderNumber;
+                SagaRecord state;
+                if (PLACED_TOPIC.equals(record.topic())) {
+                    OrderPlacedEvent placed = objectMapper.convertValue(record.value(), OrderPlacedEvent.class);
+                    orderNumber = placed.getOrderNumber();
+                    state = owned.computeIfAbsent(orderNumber, k -> SagaRecord.startedAt(now));
+                    state.setTotalItems(placed.getOrderLineItemsDtoList().size());
+                    state.setItems(placed.getOrderLineItemsDtoList());
+                } else {
+                    InventoryCheckResult result = objectMapper.convertValue(record.value(), InventoryCheckResult.class);
+                    orderNumber = result.getOrderNumber();
+                    state = owned.computeIfAbsent(orderNumber, k -> SagaRecord.startedAt(now));
+                    // Mọi kết quả của 1 đơn nằm cùng partition theo thứ tự offset: offset đã đếm = bị gửi lại
+                    // (rebalance / restart trước khi commit offset), không đếm 2 lần
+                    if (record.offset() <= state.getLastResultOffset()) {
+                        log.debug("SAGA: Duplicate result for order {} at offset {}. Ignoring.", orderNumber, record.offset());
+                        continue;
+                    }
+                    state.setLastResultOffset(record.offset());
+                    state.setReceivedItems(state.getReceivedItems() + 1);
+
+                    if (state.isFailed()) {
+                        log.info("SAGA: Order {} already marked failed. Ignoring.", orderNumber);
+                    } else if (!result.isSuccess()) {
+                        log.warn("SAGA: Inventory check FAILED for Order {}, SKU {}. Reason: {}",
+                                orderNumber, result.getItem().getSkuCode(), result.getReason());
+                        state.setFailed(true);
+                        outcomes.add(SagaOutcome.failed(orderNumber, result.getReason()));
+                    }
+                }
+
+                // totalItems = -1: kết quả tới trước OrderPlacedEvent, chờ tiếp
+                if (state.getTotalItems() >= 0 && state.getReceivedItems() >= state.getTotalItems()) {
+                    if (!state.isFailed()) {
+                        log.info("SAGA COMPLETE: Order {} passed all inventory checks.", orderNumber);
+                        outcomes.add(SagaOutcome.validated(orderNumber, state.getItems()));
+                    }
+                    owned.remove(orderNumber);
+                    dirty.put(orderNumber, null);
+                } else {
+                    log.debug("SAGA: Order {} progress: {}/{}", orderNumber, state.getReceivedItems(), state.getTotalItems());
+                    dirty.put(orderNumber, state);
+                }
+                dirtyPartition.put(orderNumber, partition);
+
+            } catch (Exception e) {
+                log.error("SAGA ERROR: Key: {}", record.key(), e);
+            }
+        }
+
+        sweepExpired(dirtyPartition.values(), now, dirty, dirtyPartition);
+
+        for (Map.Entry<String, SagaRecord> entry : dirty.entrySet()) {
+            kafkaTemplate.send(CHANGELOG_TOPIC, dirtyPartition.get(entry.getKey()), entry.getKey(), entry.getValue());
+        }
+        if (!dirty.isEmpty()) {
+            // Changelog phải được ghi xong trước khi offset của batch được commit
+            kafkaTemplate.flush();
+        }
+        return outcomes;
+    }
+
+    // Tương đương TTL của Redis: đơn không bao giờ đủ kết quả (VD: placement lỗi) sẽ bị bỏ
+    private void sweepExpired(Collection<Integer> touched, long now,
+                              Map<String, SagaRecord> dirty, Map<String, Integer> dirtyPartition) {
+        for (Integer partition : new HashSet<>(touched)) {
+            Long last = lastSweepAt.get(partition);
+            if (last != null && now - last < SWEEP_INTERVAL_MS) {
+                continue;
+            }
+            lastSweepAt.put(partition, now);
+
+            Map<String, SagaRecord> owned = partitions.getOrDefault(partition, Map.of());
+            Iterator<Map.Entry<String, SagaRecord>> it = owned.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, SagaRecord> entry = it.next();
+                if (now - entry.getValue().getStartedAt() > SAGA_TTL_MS) {
+                    log.warn("SAGA: State for order {} expired ({}/{} results).", entry.getKey(),
+                            entry.getValue().getReceivedItems(), entry.getValue().getTotalItems());
+                    it.remove();
+                    dirty.put(entry.getKey(), null);
+                    dirtyPartition.put(entry.getKey(), partition);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onPartitionsRevoked(Collection<TopicPartition> revoked) {
+        // Chưa xóa ngay: với eager rebalance, phần lớn partition sẽ được gán lại cho chính consumer này
+        for (TopicPartition tp : revoked) {
+            if (RESULT_TOPIC.equals(tp.topic())) {
+                pendingRevoked.add(tp.partition());
+            }
+        }
+    }
+
+    @Override
+    public void onPartitionsLost(Collection<TopicPartition> lost) {
+        for (TopicPartition tp : lost) {
+            if (RESULT_TOPIC.equals(tp.topic())) {
+                partitions.remove(tp.partition());
+                pendingRevoked.remove(tp.partition());
+            }
+        }
+    }
+
+    @Override
+    public void onPartitionsAssigned(Collection<TopicPartition> assigned) {
+        Set<Integer> assignedPartitions = new HashSet<>();
+        for (TopicPartition tp : assigned) {
+            if (RESULT_TOPIC.equals(tp.topic())) {
+                assignedPartitions.add(tp.partition());
+            }
+        }
+
+        // Partition đã chuyển sang consumer khác -> bỏ state cục bộ
+        for (Integer partition : new ArrayList<>(pendingRevoked)) {
+            if (!assignedPartitions.contains(partition)) {
+                partitions.remove(partition);
+                lastSweepAt.remove(partition);
+            }
+            pendingRevoked.remove(partition);
+        }
+
+        List<Integer> toRestore = assignedPartitions.stream()
+                .filter(p -> !partitions.containsKey(p))
+                .sorted()
+                .toList();
+        if (!toRestore.isEmpty()) {
+            restore(toRestore);
+        }
+    }
+
+    /**
+     * Đọc changelog từ đầu tới end offset hiện tại cho các partition vừa được gán.
+     * Chạy trên consumer thread trong lúc rebalance nên chưa có record nào của các partition này được xử lý.
+     */
+    private void restore(List<Integer> partitionNumbers) {
+        long startTime = System.currentTimeMillis();
+        Map<Integer, Map<String, SagaRecord>> restored = new HashMap<>();
+        partitionNumbers.forEach(p -> restored.put(p, new ConcurrentHashMap<>()));
+
+        Properties overrides = new Properties();
+        overrides.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, "false");
+        overrides.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, "5000");
+
+        try (Consumer<String, Object> consumer = consumerFactory.createConsumer(null, "saga-restore", null, overrides)) {
+            List<TopicPartition> tps = partitionNumbers.stream()
+                    .map(p -> new TopicPartition(CHANGELOG_TOPIC, p))
+                    .toList();
+            consumer.assign(tps);
+            consumer.seekToBeginning(tps);
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(tps);
+
+            while (tps.stream().anyMatch(tp -> consumer.position(tp) < endOffsets.get(tp))) {
+                for (ConsumerRecord<String, Object> record : consumer.poll(Duration.ofMillis(500))) {
+                    Map<String, SagaRecord> owned = restored.get(record.partition());
+                    if (record.value() == null) {
+                        owned.remove(record.key());
+                    } else {
+                        owned.put(record.key(), objectMapper.convertValue(record.value(), SagaRecord.class));
+                    }
+                }
+            }
+        }
+
+        partitions.putAll(restored);
+        log.info("SAGA: Restored {} in-flight orders for partitions {} in {} ms",
+                restored.values().stream().mapToInt(Map::size).sum(), partitionNumbers,
+                System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * State của 1 đơn hàng, cũng là value ghi vào changelog.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class SagaRecord {
+        private int totalItems;      // -1 = chưa nhận OrderPlacedEvent
+        private int receivedItems;
+        private boolean failed;
+        private long startedAt;
+        private List<OrderLineItemRequest> items;
+        // Offset (trong inventory-check-result-topic) của kết quả cuối cùng đã đếm, -1 = chưa có
+        private long lastResultOffset = -1;
+
+        static SagaRecord startedAt(long now) {
+            return new SagaRecord(-1, 0, false, now, null, -1);
+        }
+    }
+}
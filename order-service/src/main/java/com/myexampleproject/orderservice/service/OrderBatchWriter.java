@@ -0,0 +1,33 @@
+package com.myexampleproject.orderservice.service;
+
+import com.myexampleproject.orderservice.model.Order;
+import com.myexampleproject.orderservice.repository.OrderRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Ghi các Order mới của 1 poll trong MỘT transaction.
+ * Tách ra bean riêng để @Transactional có hiệu lực (gọi từ OrderService không phải self-invocation).
+ * Order / OrderLineItems dùng id từ sequence (pooled) nên Hibernate gom được INSERT theo hibernate.jdbc.batch_size.
+ */
+@Component
+@RequiredArgsConstructor
+public class OrderBatchWriter {
+
+    private final OrderRepository orderRepository;
+
+    /**
+     * inTransaction chạy trong cùng transaction sau khi INSERT (dùng để ghi message vào OrderOutbox).
+     */
+    @Transactional
+    public List<Order> saveAll(List<Order> orders, Consumer<List<Order>> inTransaction) {
+        List<Order> saved = orderRepository.saveAll(orders);
+        orderRepository.flush(); // Lỗi (VD: trùng orderNumber) nổ ra ở đây, trước khi ghi outbox
+        inTransaction.accept(saved);
+        return saved;
+    }
+}
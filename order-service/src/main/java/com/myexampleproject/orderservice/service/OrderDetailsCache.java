@@ -0,0 +1,94 @@
+package com.myexampleproject.orderservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.myexampleproject.common.event.OrderStatusEvent;
+import com.myexampleproject.orderservice.dto.OrderResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
+/**
+ * Cache read-through của OrderResponse (GET /api/order/{orderNumber}) trên Redis, key "order:details:{orderNumber}".
+ * Đơn đang chạy SAGA chỉ được cache ngắn (client poll liên tục), đơn đã kết thúc được cache lâu.
+ * Mỗi OrderStatusEvent mà order-service phát ra sẽ xóa bản cache của đơn đó.
+ */
+@Slf4j
+@Component
+public class OrderDetailsCache {
+
+    private static final String KEY_PREFIX = "order:details:";
+    private static final Set<String> TERMINAL_STATUSES = Set.of("COMPLETED", "FAILED", "PAYMENT_FAILED");
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final ObjectMapper objectMapper;
+    private final Duration pendingTtl;
+    private final Duration terminalTtl;
+
+    public OrderDetailsCache(StringRedisTemplate stringRedisTemplate,
+                             ObjectMapper objectMapper,
+                             @Value("${order.details-cache.pending-ttl:5s}") Duration pendingTtl,
+                             @Value("${order.details-cache.terminal-ttl:1h}") Duration terminalTtl) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.objectMapper = objectMapper;
+        this.pendingTtl = pendingTtl;
+        this.terminalTtl = terminalTtl;
+    }
+
+    public OrderResponse getOrLoad(String orderNumber, Supplier<OrderResponse> loader) {
+        String key = KEY_PREFIX + orderNumber;
+        try {
+            String cached = stringRedisTemplate.opsForValue().get(key);
+            if (cached != null) {
+                return objectMapper.readValue(cached, OrderResponse.class);
+            }
+        } catch (Exception e) {
+            log.warn("ORDER-CACHE: không đọc được {}: {}", key, e.getMessage()); // Redis lỗi -> đọc DB
+        }
+
+        OrderResponse order = loader.get();
+        try {
+            Duration ttl = TERMINAL_STATUSES.contains(order.getStatus()) ? terminalTtl : pendingTtl;
+            stringRedisTemplate.opsForValue().set(key, objectMapper.writeValueAsString(order), ttl);
+        } catch (Exception e) {
+            log.warn("ORDER-CACHE: không ghi được {}: {}", key, e.getMessage());
+        }
+        return order;
+    }
+
+    /**
+     * Trạng thái đổi -> xóa cache của các đơn trong batch bằng 1 lệnh DEL.
+     * Nếu 1 request đọc DB song song ghi lại bản cũ thì bản đó là trạng thái chưa kết thúc -> chỉ sống pendingTtl.
+     * Group mới chỉ đọc event mới: cache cũ nhất cũng hết hạn sau terminalTtl, replay lại toàn bộ topic là thừa.
+     */
+    @KafkaListener(
+            topics = "order-status-topic",
+            groupId = "order-details-cache-group",
+            properties = "auto.offset.reset=latest"
+    )
+    public void evictOnStatusChange(List<ConsumerRecord<String, Object>> records) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (ConsumerRecord<String, Object> record : records) {
+            try {
+                OrderStatusEvent event = objectMapper.convertValue(record.value(), OrderStatusEvent.class);
+                keys.add(KEY_PREFIX + event.getOrderNumber());
+            } catch (Exception e) {
+                if (record.key() != null) {
+                    keys.add(KEY_PREFIX + record.key()); // Topic được key theo orderNumber
+                }
+            }
+        }
+        if (!keys.isEmpty()) {
+            stringRedisTemplate.delete(keys);
+            log.debug("ORDER-CACHE: evicted {} orders", keys.size());
+        }
+    }
+}
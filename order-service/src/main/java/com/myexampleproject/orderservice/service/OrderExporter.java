@@ -0,0 +1,46 @@
+package com.myexampleproject.orderservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.myexampleproject.orderservice.dto.CursorPage;
+import com.myexampleproject.orderservice.dto.OrderFilter;
+import com.myexampleproject.orderservice.dto.OrderResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Xuất mọi đơn khớp bộ lọc dạng NDJSON (1 đơn / dòng), đọc lần lượt từng trang keyset
+ * nên bộ nhớ chỉ giữ 1 trang tại 1 thời điểm.
+ * Tách ra bean riêng để mỗi trang đi qua proxy của OrderService.findOrders: câu lệnh đơn và câu lệnh dòng hàng
+ * của 1 trang chạy chung 1 transaction read-only (gọi từ OrderService là self-invocation, @Transactional bị bỏ qua).
+ */
+@Component
+@RequiredArgsConstructor
+public class OrderExporter {
+
+    private static final int EXPORT_PAGE_SIZE = 500;
+
+    private final OrderService orderService;
+    private final ObjectMapper objectMapper;
+
+    public void exportOrders(OrderFilter filter, OutputStream out) throws IOException {
+        try (SequenceWriter ndjson = objectMapper.writerFor(OrderResponse.class)
+                .withRootValueSeparator("\n")
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .writeValues(out)) {
+            String cursor = null;
+            do {
+                CursorPage<OrderResponse> page = orderService.findOrders(filter, cursor, EXPORT_PAGE_SIZE);
+                for (OrderResponse order : page.getItems()) {
+                    ndjson.write(order);
+                }
+                ndjson.flush(); // Đẩy từng trang xuống client, ngoài transaction
+                cursor = page.getNextCursor();
+            } while (cursor != null);
+        }
+    }
+}
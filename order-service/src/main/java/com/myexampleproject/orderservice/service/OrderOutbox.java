@@ -0,0 +1,37 @@
+package com.myexampleproject.orderservice.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.myexampleproject.orderservice.model.OutboxEvent;
+import com.myexampleproject.orderservice.repository.OutboxEventRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Thay cho kafkaTemplate.send() ngay sau khi ghi DB: message được ghi vào t_order_outbox trong
+ * CÙNG transaction nên chỉ được gửi khi thay đổi của Order đã commit (và chắc chắn sẽ được gửi).
+ */
+@Component
+@RequiredArgsConstructor
+public class OrderOutbox {
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final ObjectMapper objectMapper;
+
+    // MANDATORY: gọi ngoài transaction là lỗi lập trình (message sẽ không còn nguyên tử với thay đổi DB)
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void add(String topic, String key, Object event) {
+        OutboxEvent outboxEvent = new OutboxEvent();
+        outboxEvent.setTopic(topic);
+        outboxEvent.setMessageKey(key);
+        outboxEvent.setPayloadType(event.getClass().getName());
+        try {
+            outboxEvent.setPayload(objectMapper.writeValueAsString(event));
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Cannot serialize outbox event for topic " + topic, e);
+        }
+        outboxEventRepository.save(outboxEvent);
+    }
+}
@@ -0,0 +1,166 @@
+package com.myexampleproject.orderservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.myexampleproject.orderservice.model.OutboxEvent;
+import com.myexampleproject.orderservice.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Đọc t_order_outbox theo chunk lớn và gửi lên Kafka.
+ * Mỗi chunk đi qua 3 bước: nhận (claim) các dòng chưa ai gửi trong 1 transaction ngắn, gửi cả chunk liền nhau
+ * NGOÀI transaction (producer idempotent, linger lớn hơn để gom batch) và chờ đủ ack, rồi đánh dấu sentAt
+ * bằng 1 câu UPDATE. Không giữ lock DB trong lúc chờ Kafka nên OrderOutbox.add không bị chặn.
+ * Message chưa được ack vẫn chưa có sentAt và được gửi lại ở lần sau
+ * (at-least-once; consumer đã bỏ qua event trùng theo trạng thái đơn).
+ * Message có payload không đọc lại được được đánh dấu failedAt (không gửi, không xóa).
+ * Không đảm bảo thứ tự gửi giữa các message: id cấp theo block 50 ở mỗi instance nên thứ tự id không phải
+ * thứ tự commit, và nhiều relay gửi các chunk song song.
+ */
+@Slf4j
+@Component
+public class OrderOutboxRelay {
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final ObjectMapper objectMapper;
+    private final TransactionTemplate transactionTemplate;
+    private final KafkaTemplate<String, Object> outboxKafkaTemplate;
+    private final int chunkSize;
+    private final Duration retention;
+    private final Duration claimTimeout;
+    private final Counter failedCounter;
+    // Mỗi instance 1 id riêng để biết chunk đang do ai gửi
+    private final String relayId = UUID.randomUUID().toString();
+
+    public OrderOutboxRelay(OutboxEventRepository outboxEventRepository,
+                            ObjectMapper objectMapper,
+                            MeterRegistry meterRegistry,
+                            PlatformTransactionManager transactionManager,
+                            ProducerFactory<String, Object> producerFactory,
+                            @Value("${order.outbox.chunk-size:1000}") int chunkSize,
+                            @Value("${order.outbox.linger-ms:20}") int lingerMs,
+                            @Value("${order.outbox.retention:1d}") Duration retention,
+                            @Value("${order.outbox.claim-timeout:2m}") Duration claimTimeout) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.objectMapper = objectMapper;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        // READ COMMITTED: FOR UPDATE chỉ khóa đúng các dòng đọc được, không gap/next-key lock chặn INSERT mới
+        this.transactionTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_READ_COMMITTED);
+        // Template riêng (không khai báo bean để không thay KafkaTemplate mặc định): chỉ đổi linger.ms
+        this.outboxKafkaTemplate = new KafkaTemplate<>(producerFactory,
+                Map.of(ProducerConfig.LINGER_MS_CONFIG, lingerMs));
+        this.chunkSize = chunkSize;
+        this.retention = retention;
+        this.claimTimeout = claimTimeout;
+        this.failedCounter = Counter.builder("order_outbox_failed_total")
+                .description("Outbox messages whose payload could not be read back")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${order.outbox.relay-interval-ms:100}")
+    public void relay() {
+        try {
+            int sent;
+            do {
+                sent = relayChunk();
+            } while (sent == chunkSize); // Còn tồn -> đọc tiếp ngay
+        } catch (Exception e) {
+            log.error("OUTBOX: gửi thất bại, sẽ thử lại ở lần sau: {}", e.getMessage(), e);
+        }
+    }
+
+    private int relayChunk() {
+        // 1. Transaction ngắn: nhận 1 chunk
+        List<OutboxEvent> events = transactionTemplate.execute(status -> claimChunk());
+        if (events == null || events.isEmpty()) {
+            return 0;
+        }
+
+        // 2. Gửi ngoài transaction, chờ đủ ack
+        Map<Long, CompletableFuture<?>> acks = new LinkedHashMap<>(events.size());
+        List<Long> unreadable = new ArrayList<>();
+        for (OutboxEvent event : events) {
+            Object payload;
+            try {
+                payload = objectMapper.readValue(event.getPayload(), Class.forName(event.getPayloadType()));
+            } catch (Exception e) {
+                // Không dựng lại được thì gửi lại cũng vô ích: chuyển sang failed để không chặn cả outbox
+                log.error("OUTBOX: message {} ({}) không đọc được, đánh dấu failed: {}",
+                        event.getId(), event.getPayloadType(), e.getMessage());
+                unreadable.add(event.getId());
+                continue;
+            }
+            acks.put(event.getId(), outboxKafkaTemplate.send(event.getTopic(), event.getMessageKey(), payload));
+        }
+        outboxKafkaTemplate.flush();
+        CompletableFuture.allOf(acks.values().toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
+
+        // Chỉ đánh dấu sentAt các message đã có ack; phần còn lại giữ claim và được gửi lại ở lần sau
+        List<Long> acked = new ArrayList<>(acks.size());
+        acks.forEach((id, ack) -> {
+            if (!ack.isCompletedExceptionally()) {
+                acked.add(id);
+            }
+        });
+
+        // 3. Transaction ngắn: đánh dấu đã gửi / failed
+        LocalDateTime now = LocalDateTime.now();
+        transactionTemplate.executeWithoutResult(status -> {
+            if (!acked.isEmpty()) {
+                outboxEventRepository.markSent(acked, now);
+            }
+            if (!unreadable.isEmpty()) {
+                outboxEventRepository.markFailed(unreadable, now);
+            }
+        });
+        failedCounter.increment(unreadable.size());
+        log.debug("OUTBOX: sent {} messages", acked.size());
+
+        if (acked.size() < acks.size()) {
+            log.warn("OUTBOX: {} message chưa được Kafka ack, sẽ gửi lại ở lần sau", acks.size() - acked.size());
+            return 0; // Dừng vòng đọc tiếp, đợi lần chạy sau
+        }
+        return events.size();
+    }
+
+    /**
+     * Khóa (SKIP LOCKED) tối đa chunkSize dòng chưa gửi mà không relay nào khác đang giữ, và ghi claimedBy = instance này.
+     * Claim quá hạn (instance chết giữa chừng) được nhận lại; dòng của chính instance này (chưa được ack) được gửi lại.
+     */
+    private List<OutboxEvent> claimChunk() {
+        LocalDateTime now = LocalDateTime.now();
+        List<OutboxEvent> events = outboxEventRepository.lockClaimable(
+                relayId, now.minus(claimTimeout), PageRequest.of(0, chunkSize));
+        if (!events.isEmpty()) {
+            outboxEventRepository.markClaimed(events.stream().map(OutboxEvent::getId).toList(), relayId, now);
+        }
+        return events;
+    }
+
+    @Scheduled(fixedDelayString = "${order.outbox.cleanup-interval-ms:3600000}")
+    public void deleteSent() {
+        Integer deleted = transactionTemplate.execute(status ->
+                outboxEventRepository.deleteSentBefore(LocalDateTime.now().minus(retention)));
+        log.debug("OUTBOX: deleted {} sent messages", deleted);
+    }
+}
@@ -1,19 +1,40 @@
 package com.myexampleproject.orderservice.service;
 
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.myexampleproject.common.cache.ProductCatalogCache;
 import com.myexampleproject.common.dto.OrderLineItemRequest;
 import com.myexampleproject.common.event.*;
 import com.myexampleproject.orderservice.config.CartMapper;
+import com.myexampleproject.orderservice.dto.CursorPage;
+import com.myexampleproject.orderservice.dto.OrderFilter;
 import com.myexampleproject.orderservice.dto.OrderResponse;
+import com.myexampleproject.orderservice.dto.OrderSummary;
+import jakarta.persistence.criteria.Predicate;
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
@@ -21,9 +42,6 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import com.myexampleproject.common.event.InventoryCheckRequest;
 import com.myexampleproject.common.event.InventoryCheckResult;
-import org.springframework.data.redis.core.RedisTemplate; // <-- Bạn sẽ cần Redis
-import java.time.Duration;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import com.myexampleproject.common.dto.OrderLineItemsDto;
@@ -50,10 +68,22 @@ public class OrderService {
     private final KafkaTemplate<String, Object> kafkaTemplate;
     private final ObjectMapper objectMapper;
 
-    // THÊM: Cần Redis để quản lý state của Saga
-    private final RedisTemplate<String, Object> redisTemplate;
-    private static final String SAGA_PREFIX = "saga:order:";
-    private static final String PRODUCT_CACHE_KEY = "products:cache";
+    private final SagaStateStore sagaStateStore;
+    private final ProductCatalogCache productCatalogCache;
+    private final OrderBatchWriter orderBatchWriter;
+    private final OrderStatusTransitions orderStatusTransitions;
+    private final OrderOutbox orderOutbox;
+    private final OrderDetailsCache orderDetailsCache;
+    private static final List<String> STATUS_PENDING = List.of("PENDING");
+    private static final List<String> STATUS_PENDING_OR_VALIDATED = List.of("PENDING", "VALIDATED");
+    private static final String RESERVATION_MODE_ORDER = "order";
+
+    // per-line: 1 InventoryCheckRequest / dòng | order: 1 InventoryReservationRequest / đơn
+    @Value("${inventory.reservation.mode:per-line}")
+    private String reservationMode;
+
+    @Value("${inventory.reservation.holds.enabled:false}")
+    private boolean holdsEnabled;
 
     //Viết hàm này vì dùng @RequiredArgsConstructor với biến không có final , Counter
     @PostConstruct
@@ -83,85 +113,56 @@ public class OrderService {
     // ==========================================================
     // SAGA LISTENER: Xử lý kết quả kiểm kê (ĐÃ SỬA LỖI 2 ITEMS)
     // ==========================================================
-    @KafkaListener(topics = "inventory-check-result-topic", groupId = "order-saga-group")
+    @KafkaListener(topics = "#{@sagaStateStore.sourceTopics()}", groupId = "order-saga-group",
+            containerFactory = "sagaKafkaListenerContainerFactory",
+            autoStartup = "#{@sagaStateStore.listenerEnabled()}")
     public void handleInventoryCheckResult(List<ConsumerRecord<String, Object>> records) {
         log.info("SAGA: Received batch of {} inventory results", records.size());
 
-        for (ConsumerRecord<String, Object> record : records) {
+        // Cả batch được gộp vào SagaStateStore (Redis: 1 pipeline script cho toàn bộ batch)
+        for (SagaOutcome outcome : sagaStateStore.apply(records)) {
+            String orderNumber = outcome.getOrderNumber();
             try {
-                Object payload = record.value();
-                InventoryCheckResult result = objectMapper.convertValue(payload, InventoryCheckResult.class);
-
-                String orderNumber = result.getOrderNumber();
-                String sagaKey = SAGA_PREFIX + orderNumber;
-
-                log.info("SAGA: Result for Order {}, SKU {}: Success={}",
-                        orderNumber, result.getItem().getSkuCode(), result.isSuccess());
-
-                // 1. Tăng biến đếm (Atomic Increment)
-                // Lệnh này an toàn kể cả khi key chưa có (nó sẽ tạo mới và set = 1)
-                Long receivedCount = redisTemplate.opsForHash().increment(sagaKey, "receivedItems", 1);
-
-                // 2. Kiểm tra xem đã fail trước đó chưa
-                Object failedState = redisTemplate.opsForHash().get(sagaKey, "failed");
-                boolean alreadyFailed = (failedState != null) && (Boolean) failedState;
-
-                if (alreadyFailed) {
-                    log.info("SAGA: Order {} already marked failed. Ignoring.", orderNumber);
-                    continue;
-                }
-
-                // 3. Nếu item này thất bại
-                if (!result.isSuccess()) {
-                    log.warn("SAGA: Inventory check FAILED for Order {}, SKU {}. Reason: {}",
-                            orderNumber, result.getItem().getSkuCode(), result.getReason());
-
-                    redisTemplate.opsForHash().put(sagaKey, "failed", true);
-                    kafkaTemplate.send("order-failed-topic", orderNumber, new OrderFailedEvent(orderNumber, result.getReason()));
-                    continue;
-                }
-
-                // 4. Kiểm tra tổng số items (SỬA LỖI CASTING TẠI ĐÂY)
-                Object totalObj = redisTemplate.opsForHash().get(sagaKey, "totalItems");
-                if (totalObj == null) {
-                    // Có thể do Redis hết hạn hoặc race condition cực hiếm
-                    log.warn("SAGA: State missing for order {}. Waiting...", orderNumber);
-                    continue;
+                if (outcome.isValidated()) {
+                    kafkaTemplate.send("order-validated-topic", orderNumber,
+                            new OrderValidatedEvent(orderNumber, outcome.getItems()));
+                } else {
+                    kafkaTemplate.send("order-failed-topic", orderNumber,
+                            new OrderFailedEvent(orderNumber, outcome.getReason()));
                 }
+            } catch (Exception e) {
+                log.error("SAGA ERROR: Key: {}", orderNumber, e);
+            }
+        }
+    }
 
-                // Helper để chuyển đổi số an toàn (tránh ClassCastException Long vs Integer)
-                int totalItems = parseIntegerSafely(totalObj);
-
-                log.debug("SAGA: Order {} progress: {}/{}", orderNumber, receivedCount, totalItems);
-
-                if (receivedCount == totalItems) {
-                    log.info("SAGA COMPLETE: Order {} passed all inventory checks.", orderNumber);
-
-                    Object requestObj = redisTemplate.opsForHash().get(sagaKey, "request");
-                    OrderRequest originalRequest = objectMapper.convertValue(requestObj, OrderRequest.class);
+    // ==========================================================
+    // Kết quả giữ kho cả đơn (inventory.reservation.mode=order)
+    // ==========================================================
+    // Chế độ per-line không ai ghi topic này: không khởi động group (như order-saga-group ở chế độ streams)
+    @KafkaListener(topics = "inventory-reservation-result-topic", groupId = "order-reservation-group",
+            autoStartup = "#{'${inventory.reservation.mode:per-line}' == 'order'}")
+    public void handleInventoryReservationResult(List<ConsumerRecord<String, Object>> records) {
+        log.info("SAGA: Received batch of {} reservation results", records.size());
 
+        for (ConsumerRecord<String, Object> record : records) {
+            try {
+                InventoryReservationResult result = objectMapper.convertValue(record.value(), InventoryReservationResult.class);
+                String orderNumber = result.getOrderNumber();
+                if (result.isSuccess()) {
+                    log.info("SAGA COMPLETE: Order {} reserved all items.", orderNumber);
                     kafkaTemplate.send("order-validated-topic", orderNumber,
-                            new OrderValidatedEvent(orderNumber, originalRequest.getItems()));
-
-                    redisTemplate.delete(sagaKey);
+                            new OrderValidatedEvent(orderNumber, result.getItems()));
+                } else {
+                    log.warn("SAGA: Reservation FAILED for Order {}. Reason: {}", orderNumber, result.getReason());
+                    kafkaTemplate.send("order-failed-topic", orderNumber,
+                            new OrderFailedEvent(orderNumber, result.getReason()));
                 }
-
             } catch (Exception e) {
                 log.error("SAGA ERROR: Key: {}", record.key(), e);
             }
         }
     }
-    // --- HELPER METHOD AN TOÀN ---
-    private int parseIntegerSafely(Object obj) {
-        if (obj instanceof Integer) {
-            return (Integer) obj;
-        } else if (obj instanceof Long) {
-            return ((Long) obj).intValue();
-        } else if (obj instanceof String) {
-            return Integer.parseInt((String) obj);
-        }
-        throw new IllegalArgumentException("Cannot cast " + obj.getClass() + " to int");
-    }
 
     // Dùng 1 group-id riêng cho việc xây dựng cache
     @KafkaListener(topics = "product-cache-update-topic", groupId = "order-product-cacher")
@@ -173,11 +174,9 @@ public class OrderService {
                 ProductCacheEvent event = objectMapper.convertValue(record.value(), ProductCacheEvent.class);
                 String sku = event.getSkuCode();
 
-                // Lưu vào REDIS HASH
-                // Key: "products:cache"
-                // HashKey: "SKU_CODE"
-                // Value: Toàn bộ object 'event' (chứa giá + tên)
-                redisTemplate.opsForHash().put(PRODUCT_CACHE_KEY, sku, event);
+                // Lưu vào REDIS HASH "products:cache" (HashKey: SKU, Value: toàn bộ event)
+                // và near-cache của instance này
+                productCatalogCache.put(event);
 
                 log.debug("Cached product info for SKU: {}", sku);
 
@@ -187,27 +186,33 @@ public class OrderService {
         }
     }
 
-    @Transactional(readOnly = true) // Giao dịch chỉ đọc, nhanh hơn
+    // Không mở transaction: cache hit thì không đụng tới DB (kể cả lấy connection)
     public OrderResponse getOrderDetails(String orderNumber) {
         log.info("Fetching order details for: {}", orderNumber);
 
-        // 1. Tìm Order trong CSDL
-        Order order = orderRepository.findByOrderNumber(orderNumber)
-                .orElseThrow(() -> new RuntimeException("Order not found: " + orderNumber));
+        return orderDetailsCache.getOrLoad(orderNumber, () -> {
+            // 1. Tìm Order trong CSDL (JOIN FETCH dòng hàng, không cần transaction để lazy load)
+            Order order = orderRepository.findByOrderNumberWithItems(orderNumber)
+                    .orElseThrow(() -> new RuntimeException("Order not found: " + orderNumber));
 
-        // 2. Map từ Entity (Order) sang DTO (OrderResponse)
-        return mapToOrderResponse(order);
+            // 2. Map từ Entity (Order) sang DTO (OrderResponse)
+            return mapToOrderResponse(order);
+        });
     }
 
     /**
      * Helper: Chuyển đổi Entity Order -> DTO OrderResponse.
      */
     private OrderResponse mapToOrderResponse(Order order) {
+        return mapToOrderResponse(order, order.getOrderLineItemsList());
+    }
+
+    private OrderResponse mapToOrderResponse(Order order, List<OrderLineItems> lineItems) {
         return OrderResponse.builder()
                 .id(order.getId())
                 .orderNumber(order.getOrderNumber())
                 .status(order.getStatus())
-                .orderLineItemsList(order.getOrderLineItemsList()
+                .orderLineItemsList(lineItems
                         .stream()
                         .map(this::mapToOrderLineItemsDto) // Tái sử dụng logic map
                         .toList())
@@ -273,33 +278,52 @@ public class OrderService {
     public void handleOrderEvents(List<ConsumerRecord<String, Object>> records) {
         log.info("Received a batch of {} events", records.size());
 
-        // Loop qua danh sách
+        // Đơn mới của cả poll được lưu trước, chung 1 transaction (các event khác của 1 đơn luôn đến sau khi nó được lưu)
+        List<OrderPlacedEvent> placedEvents = new ArrayList<>();
+        for (ConsumerRecord<String, Object> record : records) {
+            if ("order-placed-topic".equals(record.topic())) {
+                try {
+                    placedEvents.add(objectMapper.convertValue(record.value(), OrderPlacedEvent.class));
+                } catch (Exception e) {
+                    log.error("LỖI KHI ĐỌC OrderPlacedEvent: {}", record.key(), e);
+                }
+            }
+        }
+        if (!placedEvents.isEmpty()) {
+            handleOrderPlacements(placedEvents);
+        }
+
+        // Trạng thái đích của mỗi đơn theo đúng thứ tự event đến
+        Map<String, List<String>> targetsByOrder = new LinkedHashMap<>();
         for (ConsumerRecord<String, Object> record : records) {
             String topic = record.topic();
             Object payload = record.value();
             log.debug("Processing event from topic [{}], key [{}]", topic, record.key());
 
-            // Logic switch-case của bạn giữ nguyên
             try {
                 switch (topic) {
                     case "order-placed-topic":
-                        OrderPlacedEvent placedEvent = objectMapper.convertValue(payload, OrderPlacedEvent.class);
-                        handleOrderPlacement(placedEvent); // Hàm private này giữ nguyên
-                        break;
+                        break; // Đã xử lý theo batch ở handleOrderPlacements
 
                     case "order-failed-topic":
                         OrderFailedEvent failedEvent = objectMapper.convertValue(payload, OrderFailedEvent.class);
-                        handleOrderFailure(failedEvent); // Hàm private này giữ nguyên
+                        log.warn("INVENTORY FAILED: Received feedback for Order {}. Reason: {}",
+                                failedEvent.getOrderNumber(), failedEvent.getReason());
+                        targetsByOrder.computeIfAbsent(failedEvent.getOrderNumber(), k -> new ArrayList<>()).add("FAILED");
                         break;
 
                     case "payment-processed-topic":
                         PaymentProcessedEvent processedEvent = objectMapper.convertValue(payload, PaymentProcessedEvent.class);
-                        handlePaymentSuccess(processedEvent);
+                        log.info("SUCCESS: Received PaymentProcessedEvent for Order {}. Payment ID: {}.",
+                                processedEvent.getOrderNumber(), processedEvent.getPaymentId());
+                        targetsByOrder.computeIfAbsent(processedEvent.getOrderNumber(), k -> new ArrayList<>()).add("COMPLETED");
                         break;
 
                     case "payment-failed-topic":
                         PaymentFailedEvent paymentFailedEvent = objectMapper.convertValue(payload, PaymentFailedEvent.class);
-                        handlePaymentFailure(paymentFailedEvent);
+                        log.warn("FAILED: Received PaymentFailedEvent for Order {}. Reason: {}.",
+                                paymentFailedEvent.getOrderNumber(), paymentFailedEvent.getReason());
+                        targetsByOrder.computeIfAbsent(paymentFailedEvent.getOrderNumber(), k -> new ArrayList<>()).add("PAYMENT_FAILED");
                         break;
 
                     default:
@@ -309,6 +333,47 @@ public class OrderService {
                 log.error("LỖI KHI XỬ LÝ MESSAGE: {}. Sẽ KHÔNG retry.", record.key(), e);
             }
         }
+
+        // Vòng k = event thứ k của mọi đơn: trong 1 vòng mỗi đơn chỉ có 1 event nên gom theo trạng thái đích được
+        // (mỗi nhóm 1 lần UPDATE), còn các event của cùng 1 đơn vẫn áp dụng đúng thứ tự đến.
+        // Thường mỗi đơn chỉ có 1 event / poll -> 1 vòng.
+        for (int round = 0; ; round++) {
+            Set<String> inventoryFailed = new LinkedHashSet<>();
+            Set<String> paymentProcessed = new LinkedHashSet<>();
+            Set<String> paymentFailed = new LinkedHashSet<>();
+            for (Map.Entry<String, List<String>> entry : targetsByOrder.entrySet()) {
+                if (entry.getValue().size() <= round) {
+                    continue;
+                }
+                switch (entry.getValue().get(round)) {
+                    case "FAILED" -> inventoryFailed.add(entry.getKey());
+                    case "COMPLETED" -> paymentProcessed.add(entry.getKey());
+                    default -> paymentFailed.add(entry.getKey());
+                }
+            }
+            if (inventoryFailed.isEmpty() && paymentProcessed.isEmpty() && paymentFailed.isEmpty()) {
+                break;
+            }
+            applyStatusEvents(inventoryFailed, paymentProcessed, paymentFailed);
+        }
+    }
+
+    private void applyStatusEvents(Set<String> inventoryFailed, Set<String> paymentProcessed, Set<String> paymentFailed) {
+        try {
+            handleOrderFailures(inventoryFailed);
+        } catch (Exception e) {
+            log.error("LỖI KHI CẬP NHẬT {} đơn FAILED. Sẽ KHÔNG retry.", inventoryFailed.size(), e);
+        }
+        try {
+            handlePaymentSuccesses(paymentProcessed);
+        } catch (Exception e) {
+            log.error("LỖI KHI CẬP NHẬT {} đơn COMPLETED. Sẽ KHÔNG retry.", paymentProcessed.size(), e);
+        }
+        try {
+            handlePaymentFailures(paymentFailed);
+        } catch (Exception e) {
+            log.error("LỖI KHI CẬP NHẬT {} đơn PAYMENT_FAILED. Sẽ KHÔNG retry.", paymentFailed.size(), e);
+        }
     }
 
     public <T> T toEvent(Object payload, Class<T> clazz) {
@@ -316,10 +381,88 @@ public class OrderService {
     }
 
 
-    @Transactional
-    protected void handleOrderPlacement(OrderPlacedEvent event) {
-        log.info("Async Save: Saving Order {} to database...", event.getOrderNumber());
+    /**
+     * Lưu mọi đơn mới của 1 poll: tra giá 1 lần cho cả batch, INSERT theo JDBC batch trong 1 transaction,
+     * rồi mới gửi event SAGA cho các đơn đã commit.
+     */
+    private void handleOrderPlacements(List<OrderPlacedEvent> events) {
+        log.info("Async Save: Saving {} orders to database...", events.size());
+
+        // 1. Gom SKU của mọi đơn -> tra giá 1 lần (near-cache + 1 HMGET) thay vì 1 HGET / dòng
+        Set<String> skus = new HashSet<>();
+        events.forEach(event -> event.getOrderLineItemsDtoList().forEach(item -> skus.add(item.getSkuCode())));
+        Map<String, ProductCacheEvent> catalog = productCatalogCache.getAll(skus);
+
+        // 2. Dựng entity, đơn lỗi (thiếu giá) bị bỏ qua như trước
+        Map<String, OrderPlacedEvent> eventsByOrderNumber = new LinkedHashMap<>();
+        List<Order> orders = new ArrayList<>();
+        for (OrderPlacedEvent event : events) {
+            try {
+                orders.add(buildOrder(event, catalog));
+                eventsByOrderNumber.put(event.getOrderNumber(), event);
+            } catch (Exception e) {
+                log.error("LỖI KHI TẠO ĐƠN {}: {}. Sẽ KHÔNG retry.", event.getOrderNumber(), e.getMessage());
+            }
+        }
+        if (orders.isEmpty()) {
+            return;
+        }
 
+        // 3. Tạo state SAGA TRƯỚC khi commit: relay gửi check request ngay khi outbox row được commit,
+        //    kết quả kho đến trước state sẽ bị coi là STATE_MISSING và bị bỏ
+        Set<String> startedSagas = startSagas(orders, eventsByOrderNumber);
+
+        // 4. 1 transaction cho cả batch (kèm message SAGA trong outbox);
+        //    nếu lỗi (VD: đơn bị gửi lại trùng orderNumber, lỗi DB / outbox) thì lưu từng đơn
+        Consumer<List<Order>> enqueueSagaMessages = savedOrders -> savedOrders.forEach(
+                order -> enqueueSagaMessages(eventsByOrderNumber.get(order.getOrderNumber())));
+        List<Order> saved;
+        try {
+            saved = orderBatchWriter.saveAll(orders, enqueueSagaMessages);
+        } catch (RuntimeException e) {
+            log.warn("Batch insert thất bại ({}), lưu lại từng đơn", e.getMessage());
+            saved = new ArrayList<>();
+            for (Order order : orders) {
+                try {
+                    saved.addAll(orderBatchWriter.saveAll(List.of(resetIds(order)), enqueueSagaMessages));
+                } catch (Exception ex) {
+                    log.error("LỖI KHI LƯU ĐƠN {}: {}. Sẽ KHÔNG retry.", order.getOrderNumber(), ex.getMessage());
+                }
+            }
+        }
+        log.info("Async Save: {} orders saved to database.", saved.size());
+
+        // 5. Đơn không lưu được (trùng orderNumber, lỗi DB) -> xóa state SAGA vừa tạo cho nó
+        if (!startedSagas.isEmpty()) {
+            Set<String> savedOrderNumbers = new HashSet<>();
+            saved.forEach(order -> savedOrderNumbers.add(order.getOrderNumber()));
+            startedSagas.stream()
+                    .filter(orderNumber -> !savedOrderNumbers.contains(orderNumber))
+                    .forEach(sagaStateStore::discard);
+        }
+    }
+
+    private Set<String> startSagas(List<Order> orders, Map<String, OrderPlacedEvent> eventsByOrderNumber) {
+        Set<String> started = new HashSet<>();
+        if (RESERVATION_MODE_ORDER.equals(reservationMode)) {
+            return started;
+        }
+        try {
+            for (Order order : orders) {
+                OrderPlacedEvent event = eventsByOrderNumber.get(order.getOrderNumber());
+                if (sagaStateStore.start(event.getOrderNumber(), event.getOrderLineItemsDtoList())) {
+                    started.add(event.getOrderNumber());
+                }
+            }
+        } catch (RuntimeException e) {
+            // Chưa ghi gì vào DB -> dọn state đã tạo rồi ném lỗi để listener nhận lại cả batch
+            started.forEach(sagaStateStore::discard);
+            throw e;
+        }
+        return started;
+    }
+
+    private Order buildOrder(OrderPlacedEvent event, Map<String, ProductCacheEvent> catalog) {
         Order order = new Order();
         order.setOrderNumber(event.getOrderNumber());
         order.setUserId(event.getUserId());
@@ -332,12 +475,10 @@ public class OrderService {
 
         for (OrderLineItemRequest itemReq : itemRequests) {
 
-            // --- LOGIC SỬA ĐỔI BẮT ĐẦU TỪ ĐÂY ---
+            // 1. Lấy thông tin sản phẩm đã tra sẵn cho cả batch
+            ProductCacheEvent productInfo = catalog.get(itemReq.getSkuCode());
 
-            // 1. Lấy thông tin sản phẩm từ Cache
-            Object cachedData = redisTemplate.opsForHash().get(PRODUCT_CACHE_KEY, itemReq.getSkuCode());
-
-            if (cachedData == null) {
+            if (productInfo == null) {
                 // Lỗi nghiêm trọng: Sản phẩm không có trong cache
                 // (Trong thực tế, bạn có thể gọi API dự phòng, hoặc FAILED đơn hàng)
                 log.error("KHÔNG TÌM THẤY CACHE cho SKU: {}", itemReq.getSkuCode());
@@ -345,17 +486,12 @@ public class OrderService {
                 throw new RuntimeException("Product not in cache: " + itemReq.getSkuCode());
             }
 
-            // 2. Convert cache (là ProductCacheEvent)
-            ProductCacheEvent productInfo = objectMapper.convertValue(cachedData, ProductCacheEvent.class);
-
-            // 3. Gọi hàm mapToDto (đã sửa) với giá
+            // 2. Gọi hàm mapToDto (đã sửa) với giá
             OrderLineItems entity = mapToDtoWithPrice(itemReq, productInfo);
 
-            // 4. Thiết lập quan hệ
+            // 3. Thiết lập quan hệ
             entity.setOrder(order);
             orderLineItemsEntities.add(entity);
-
-            // --- LOGIC SỬA ĐỔI KẾT THÚC ---
         }
 
         order.setOrderLineItemsList(orderLineItemsEntities);
@@ -366,37 +502,37 @@ public class OrderService {
                 // Cộng tất cả kết quả lại
                 .reduce(BigDecimal.ZERO, BigDecimal::add);
         order.setTotalPrice(totalPrice);
+        return order;
+    }
 
+    // Id đã được cấp trong transaction bị rollback -> xóa để lần lưu lại là INSERT mới
+    private Order resetIds(Order order) {
+        order.setId(null);
+        order.getOrderLineItemsList().forEach(item -> item.setId(null));
+        return order;
+    }
 
-        orderRepository.save(order);
-        log.info("Async Save: Order {} saved to database.", event.getOrderNumber());
-
+    // Chạy trong transaction của OrderBatchWriter: message SAGA của đơn được ghi vào outbox
+    private void enqueueSagaMessages(OrderPlacedEvent event) {
         List<OrderLineItemRequest> items = event.getOrderLineItemsDtoList(); // Lấy từ event
         String orderNumber = event.getOrderNumber();
 
-        // A. Lưu state vào Redis
-        Map<String, Object> sagaState = Map.of(
-                "totalItems", items.size(),
-                "receivedItems", 0,
-                "failed", false,
-                "request", new OrderRequest(items) // Tái tạo lại object request để lưu
-        );
-        redisTemplate.opsForHash().putAll(SAGA_PREFIX + orderNumber, sagaState);
-        redisTemplate.expire(SAGA_PREFIX + orderNumber, Duration.ofMinutes(10));
-
-        // B. Gửi yêu cầu kiểm tra kho
-        for (OrderLineItemRequest item : items) {
-            InventoryCheckRequest checkRequest = new InventoryCheckRequest(orderNumber, item);
-            kafkaTemplate.send("inventory-check-request-topic", item.getSkuCode(), checkRequest);
+        if (RESERVATION_MODE_ORDER.equals(reservationMode)) {
+            // Giữ kho cả đơn: 1 request / 1 result, không cần đếm SAGA
+            orderOutbox.add("inventory-reservation-request-topic", orderNumber,
+                    new InventoryReservationRequest(orderNumber, items));
+        } else {
+            // Gửi yêu cầu kiểm tra kho (state SAGA đã được tạo trước transaction này)
+            for (OrderLineItemRequest item : items) {
+                InventoryCheckRequest checkRequest = new InventoryCheckRequest(orderNumber, item);
+                orderOutbox.add("inventory-check-request-topic", item.getSkuCode(), checkRequest);
+            }
         }
 
-        log.info("SAGA started for persisted Order {}. Check requests sent.", orderNumber);
-
-        OrderStatusEvent statusEvent = new OrderStatusEvent(event.getOrderNumber(), "PENDING");
-        kafkaTemplate.send("order-status-topic", event.getOrderNumber(), statusEvent);
+        orderOutbox.add("order-status-topic", orderNumber, new OrderStatusEvent(orderNumber, "PENDING"));
     }
 
-    // Hàm này được gọi trong handleOrderPlacement
+    // Hàm này được gọi trong buildOrder
     private OrderLineItems mapToDtoWithPrice(OrderLineItemRequest itemRequest, ProductCacheEvent productInfo) {
         OrderLineItems orderLineItems = new OrderLineItems();
         orderLineItems.setQuantity(itemRequest.getQuantity());
@@ -413,121 +549,195 @@ public class OrderService {
         return orderLineItems;
     }
 
-    @Transactional
-    protected void handleOrderFailure(OrderFailedEvent failedEvent) {
-        log.info("Using OrderFailedEvent class: {}", failedEvent.getClass().getName());
-        log.warn("INVENTORY FAILED: Received feedback for Order {}. Reason: {}",
-                failedEvent.getOrderNumber(), failedEvent.getReason());
-
-        Order order = orderRepository.findByOrderNumber(failedEvent.getOrderNumber())
-                .orElseThrow(() -> new RuntimeException("Order not found: " + failedEvent.getOrderNumber()));
-        if (order.getStatus().equals("PENDING")) {
-            order.setStatus("FAILED");
-            orderRepository.save(order);
-            log.warn("Order {} status updated to FAILED due to inventory issue.", order.getOrderNumber());
-            kafkaTemplate.send("order-status-topic", order.getOrderNumber(),
-                    new OrderStatusEvent(order.getOrderNumber(), order.getStatus()));
-            this.ordersFailedCounter.increment();
-        } else {
-            log.warn("Received failure event for order {} but status was not PENDING (Status: {}).",
-                    order.getOrderNumber(), order.getStatus());
+    private void handleOrderFailures(Collection<String> orderNumbers) {
+        List<String> changed = transitionStatus(orderNumbers, "FAILED", STATUS_PENDING, none -> {});
+        ordersFailedCounter.increment(changed.size());
+        if (!changed.isEmpty()) {
+            log.warn("{} orders status updated to FAILED due to inventory issue.", changed.size());
         }
     }
 
-    @Transactional
-    protected void handlePaymentSuccess(PaymentProcessedEvent paymentProcessedEvent) {
-        log.info("SUCCESS: Received PaymentProcessedEvent for Order {}. Payment ID: {}. Updating status...",
-                paymentProcessedEvent.getOrderNumber(), paymentProcessedEvent.getPaymentId());
+    private void handlePaymentSuccesses(Collection<String> orderNumbers) {
+        List<String> changed = transitionStatus(orderNumbers, "COMPLETED", STATUS_PENDING_OR_VALIDATED, none -> {});
+        ordersCompletedCounter.increment(changed.size());
+        if (!changed.isEmpty()) {
+            log.info("{} orders status updated to COMPLETED.", changed.size());
+        }
+    }
 
-        // Không cần try-catch ở đây nữa vì đã có ở hàm listener chính
-        Order order = orderRepository.findByOrderNumber(paymentProcessedEvent.getOrderNumber())
-                .orElseThrow(() -> new RuntimeException("Order not found: " + paymentProcessedEvent.getOrderNumber()));
+    private void handlePaymentFailures(Collection<String> orderNumbers) {
+        // Khi inventory giữ hàng (hold) thì chính inventory-service hoàn kho từ payment-failed-topic
+        Consumer<List<String>> compensation = holdsEnabled ? none -> {} : this::enqueueRestock;
+        List<String> changed = transitionStatus(orderNumbers, "PAYMENT_FAILED", STATUS_PENDING_OR_VALIDATED, compensation);
+        if (!changed.isEmpty()) {
+            log.warn("{} orders status updated to PAYMENT_FAILED.", changed.size());
+        }
+    }
 
-        if ("PENDING".equals(order.getStatus()) || "VALIDATED".equals(order.getStatus())) {
-            order.setStatus("COMPLETED");
-            orderRepository.save(order);
-            log.info("Order {} status updated to COMPLETED.", order.getOrderNumber());
-            kafkaTemplate.send("order-status-topic", order.getOrderNumber(),
-                    new OrderStatusEvent(order.getOrderNumber(), order.getStatus()));
-            this.ordersCompletedCounter.increment();
-        } else {
-            log.warn("Received payment success for order {} but status was not PENDING (Status: {}).",
-                    order.getOrderNumber(), order.getStatus());
-        }
-    }
-
-    @Transactional
-    protected void handlePaymentFailure(PaymentFailedEvent paymentFailedEvent) {
-        log.warn("FAILED: Received PaymentFailedEvent for Order {}. Reason: {}. Updating status...",
-                paymentFailedEvent.getOrderNumber(), paymentFailedEvent.getReason());
-        Order order = orderRepository.findByOrderNumberWithItems(paymentFailedEvent.getOrderNumber())
-                .orElseThrow(() -> new RuntimeException("Order not found: " + paymentFailedEvent.getOrderNumber()));
-        if ("PENDING".equals(order.getStatus()) || "VALIDATED".equals(order.getStatus())) {
-            order.setStatus("PAYMENT_FAILED");
-            orderRepository.save(order);
-            List<OrderLineItems> items = order.getOrderLineItemsList();
-            for (OrderLineItems item : items) {
+    // Chạy trong transaction chuyển trạng thái: lệnh hoàn kho đi qua outbox cùng với PAYMENT_FAILED
+    private void enqueueRestock(List<String> orderNumbers) {
+        for (Order order : orderRepository.findAllByOrderNumberInWithItems(orderNumbers)) {
+            for (OrderLineItems item : order.getOrderLineItemsList()) {
                 InventoryAdjustmentEvent adjustmentEvent = InventoryAdjustmentEvent.builder()
                         .skuCode(item.getSkuCode())
                         .adjustmentQuantity(item.getQuantity()) // Số dương: Cộng lại vào kho
                         .reason("COMPENSATION: Payment Failed for Order " + order.getOrderNumber())
                         .build();
-                kafkaTemplate.send("inventory-adjustment-topic", item.getSkuCode(), adjustmentEvent);
-                log.info("COMPENSATION: Sent restock request for SKU {} (+{})", item.getSkuCode(), item.getQuantity());
+                orderOutbox.add("inventory-adjustment-topic", item.getSkuCode(), adjustmentEvent);
+                log.info("COMPENSATION: Queued restock request for SKU {} (+{})", item.getSkuCode(), item.getQuantity());
             }
-            log.warn("Order {} status updated to PAYMENT_FAILED.", order.getOrderNumber());
-            kafkaTemplate.send("order-status-topic", order.getOrderNumber(),
-                    new OrderStatusEvent(order.getOrderNumber(), order.getStatus()));
-        } else {
-            log.warn("Received payment failure for order {} but status was not PENDING (Status: {}).",
-                    order.getOrderNumber(), order.getStatus());
         }
     }
 
+    /**
+     * Chuyển trạng thái cả nhóm (1 SELECT ... FOR UPDATE + 1 UPDATE); OrderStatusEvent chỉ cho các đơn
+     * thực sự đổi trạng thái, được gửi qua outbox.
+     */
+    private List<String> transitionStatus(Collection<String> orderNumbers, String toStatus, Collection<String> fromStatuses,
+                                          Consumer<List<String>> inTransaction) {
+        if (orderNumbers.isEmpty()) {
+            return List.of();
+        }
+        List<String> changed = orderStatusTransitions.apply(orderNumbers, toStatus, fromStatuses, inTransaction);
+        if (changed.size() < orderNumbers.size()) {
+            log.warn("{}/{} orders skipped for {}: not found or status not in {}.",
+                    orderNumbers.size() - changed.size(), orderNumbers.size(), toStatus, fromStatuses);
+        }
+        return changed;
+    }
+
     @KafkaListener(topics = "order-validated-topic", groupId = "order-group")
     public void handleValidated(List<ConsumerRecord<String, Object>> records) { // <-- SỬA 1: Nhận List
         log.info("SAGA SUCCESS: Received batch of {} validated events", records.size());
 
+        Set<String> validated = new LinkedHashSet<>();
         for (ConsumerRecord<String, Object> record : records) { // <-- SỬA 2: Thêm vòng lặp
             try {
                 // SỬA 3: Deserialization thủ công
                 Object payload = record.value();
                 OrderValidatedEvent event = objectMapper.convertValue(payload, OrderValidatedEvent.class);
-
-                // --- (Logic cũ của bạn bắt đầu từ đây) ---
-                log.info("SAGA SUCCESS: Order {} validated, updating status.", event.getOrderNumber());
-                Order order = orderRepository.findByOrderNumber(event.getOrderNumber())
-                        .orElseThrow(() -> new RuntimeException("Order not found: " + event.getOrderNumber()));
-
-                if ("PENDING".equals(order.getStatus())) {
-                    order.setStatus("VALIDATED"); // Trạng thái "đã xác thực kho"
-                    orderRepository.save(order);
-                    kafkaTemplate.send("order-status-topic",
-                            order.getOrderNumber(),
-                            new OrderStatusEvent(order.getOrderNumber(), "VALIDATED")
-                    );
-
-                    // (Bạn có thể kích hoạt payment-service từ đây nếu muốn)
-
-                } else {
-                    log.warn("Received validated event for order {} but status was not PENDING (Status: {}).",
-                            order.getOrderNumber(), order.getStatus());
-                }
-                // --- (Logic cũ kết thúc) ---
-
+                validated.add(event.getOrderNumber());
             } catch (Exception e) {
                 log.error("SAGA: LỖI KHI XỬ LÝ OrderValidatedEvent: {}. Sẽ KHÔNG retry.", record.key(), e);
             }
         }
+
+        // Trạng thái "đã xác thực kho": cả batch trong 1 lần UPDATE
+        // (Bạn có thể kích hoạt payment-service từ đây nếu muốn)
+        try {
+            List<String> changed = transitionStatus(validated, "VALIDATED", STATUS_PENDING, none -> {});
+            log.info("SAGA SUCCESS: {} orders validated.", changed.size());
+        } catch (Exception e) {
+            log.error("SAGA: LỖI KHI CẬP NHẬT {} đơn VALIDATED. Sẽ KHÔNG retry.", validated.size(), e);
+        }
     }
 
-    public List<OrderResponse> getAllOrders() {
-        List<Order> orders = orderRepository.findAll();
+    /**
+     * Danh sách đơn có lọc, phân trang keyset theo (orderDate, id) giảm dần - cùng thứ tự với các index
+     * idx_orders_user_date / idx_orders_status_date / idx_orders_date nên không phải filesort.
+     * Cursor = (orderDate, id) của đơn cuối trang trước.
+     * Mỗi trang tốn 2 câu lệnh: 1 cho đơn (LIMIT size + 1, không COUNT) và 1 cho toàn bộ dòng hàng của trang.
+     */
+    @Transactional(readOnly = true)
+    public CursorPage<OrderResponse> findOrders(OrderFilter filter, String cursor, int size) {
+        OrderSummary last = cursor == null || cursor.isBlank() ? null : decodeSummaryCursor(cursor);
+        List<Order> orders = orderRepository.findBy(orderSpecification(filter, last),
+                query -> query.sortBy(Sort.by(Sort.Direction.DESC, "orderDate", "id")).limit(size + 1).all());
+
+        boolean hasNext = orders.size() > size;
+        List<Order> page = hasNext ? orders.subList(0, size) : orders;
+        String nextCursor = null;
+        if (hasNext) {
+            Order lastOrder = page.get(page.size() - 1);
+            nextCursor = encodeCursor(lastOrder.getOrderDate(), lastOrder.getId());
+        }
+        return new CursorPage<>(toOrderResponses(page), nextCursor);
+    }
+
+    private List<OrderResponse> toOrderResponses(List<Order> orders) {
+        if (orders.isEmpty()) {
+            return List.of();
+        }
+        Map<Long, List<OrderLineItems>> itemsByOrderId = new HashMap<>();
+        for (OrderLineItems item : orderRepository.findLineItemsByOrderIds(orders.stream().map(Order::getId).toList())) {
+            // getOrder().getId() không khởi tạo proxy Order
+            itemsByOrderId.computeIfAbsent(item.getOrder().getId(), id -> new ArrayList<>()).add(item);
+        }
         return orders.stream()
-                .map(this::mapToOrderResponse)
+                .map(order -> mapToOrderResponse(order, itemsByOrderId.getOrDefault(order.getId(), List.of())))
                 .toList();
     }
 
+    /**
+     * Lịch sử đơn của 1 user, mới nhất trước. Cursor = (orderDate, id) của dòng cuối trang trước,
+     * không hydrate dòng hàng.
+     */
+    @Transactional(readOnly = true)
+    public CursorPage<OrderSummary> findUserOrders(String userId, String cursor, int size) {
+        Pageable limit = PageRequest.of(0, size + 1); // Không COUNT, chỉ LIMIT
+        List<OrderSummary> orders;
+        if (cursor == null || cursor.isBlank()) {
+            orders = orderRepository.findSummariesByUserId(userId, limit);
+        } else {
+            OrderSummary last = decodeSummaryCursor(cursor);
+            orders = orderRepository.findSummariesByUserIdBefore(userId, last.getOrderDate(), last.getId(), limit);
+        }
+
+        boolean hasNext = orders.size() > size;
+        List<OrderSummary> page = hasNext ? orders.subList(0, size) : orders;
+        String nextCursor = hasNext ? encodeSummaryCursor(page.get(page.size() - 1)) : null;
+        return new CursorPage<>(page, nextCursor);
+    }
+
+    // Cursor dạng "orderDate|id" mã hóa base64url (client chỉ gửi lại, không cần hiểu)
+    private static String encodeSummaryCursor(OrderSummary last) {
+        return encodeCursor(last.getOrderDate(), last.getId());
+    }
+
+    private static String encodeCursor(LocalDateTime orderDate, Long id) {
+        String raw = orderDate + "|" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static OrderSummary decodeSummaryCursor(String cursor) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = raw.lastIndexOf('|');
+            OrderSummary last = new OrderSummary();
+            last.setOrderDate(LocalDateTime.parse(raw.substring(0, separator)));
+            last.setId(Long.parseLong(raw.substring(separator + 1)));
+            return last;
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+    }
+
+    private static Specification<Order> orderSpecification(OrderFilter filter, OrderSummary last) {
+        return (root, query, cb) -> {
+            List<Predicate> predicates = new ArrayList<>();
+            if (filter.getUserId() != null) {
+                predicates.add(cb.equal(root.get("userId"), filter.getUserId()));
+            }
+            if (filter.getStatus() != null) {
+                predicates.add(cb.equal(root.get("status"), filter.getStatus()));
+            }
+            if (filter.getFrom() != null) {
+                predicates.add(cb.greaterThanOrEqualTo(root.get("orderDate"), filter.getFrom()));
+            }
+            if (filter.getTo() != null) {
+                predicates.add(cb.lessThan(root.get("orderDate"), filter.getTo()));
+            }
+            if (last != null) {
+                // (orderDate, id) < (last.orderDate, last.id)
+                predicates.add(cb.or(
+                        cb.lessThan(root.get("orderDate"), last.getOrderDate()),
+                        cb.and(cb.equal(root.get("orderDate"), last.getOrderDate()),
+                                cb.lessThan(root.get("id"), last.getId()))));
+            }
+            return cb.and(predicates.toArray(Predicate[]::new));
+        };
+    }
+
     private OrderLineItems mapToDto(OrderLineItemsDto orderLineItemsDto) {
         OrderLineItems orderLineItems = new OrderLineItems();
         orderLineItems.setPrice(orderLineItemsDto.getPrice());
@@ -0,0 +1,49 @@
+package com.myexampleproject.orderservice.service;
+
+import com.myexampleproject.common.event.OrderStatusEvent;
+import com.myexampleproject.orderservice.repository.OrderRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Chuyển trạng thái hàng loạt cho các event của 1 poll (thanh toán, lỗi kho, xác thực kho).
+ * Mỗi nhóm (trạng thái đích) chỉ tốn 2 câu lệnh: SELECT ... FOR UPDATE các đơn đang ở trạng thái hợp lệ
+ * và 1 UPDATE ... WHERE orderNumber IN (...), thay vì SELECT + save cho từng event.
+ * OrderStatusEvent đi qua OrderOutbox nên chỉ được gửi khi thay đổi đã commit.
+ */
+@Component
+@RequiredArgsConstructor
+public class OrderStatusTransitions {
+
+    private final OrderRepository orderRepository;
+    private final OrderOutbox orderOutbox;
+
+    /**
+     * Trả về orderNumber của các đơn THỰC SỰ đổi trạng thái (đã commit khi hàm trả về).
+     * OrderStatusEvent của các đơn này được ghi vào outbox trong cùng transaction;
+     * inTransaction (nếu có) cũng chạy trong transaction đó để ghi thêm message (VD: hoàn kho).
+     */
+    @Transactional
+    public List<String> apply(Collection<String> orderNumbers, String toStatus, Collection<String> fromStatuses,
+                              Consumer<List<String>> inTransaction) {
+        if (orderNumbers.isEmpty()) {
+            return List.of();
+        }
+        // Khóa các dòng để listener khác (VD: order-group) không đổi trạng thái chen vào giữa 2 câu lệnh
+        List<String> changed = orderRepository.lockOrderNumbersInStatus(orderNumbers, fromStatuses);
+        if (changed.isEmpty()) {
+            return changed;
+        }
+        orderRepository.updateStatus(changed, toStatus);
+        for (String orderNumber : changed) {
+            orderOutbox.add("order-status-topic", orderNumber, new OrderStatusEvent(orderNumber, toStatus));
+        }
+        inTransaction.accept(changed);
+        return changed;
+    }
+}
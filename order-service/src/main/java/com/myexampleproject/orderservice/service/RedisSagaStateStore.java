@@ -0,0 +1,224 @@
+package com.myexampleproject.orderservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.myexampleproject.common.dto.OrderLineItemRequest;
+import com.myexampleproject.common.event.InventoryCheckResult;
+import com.myexampleproject.orderservice.dto.OrderRequest;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.RedisPipelineException;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * State SAGA lưu trong Redis Hash "saga:order:{orderNumber}".
+ * Mỗi kết quả kiểm kho chỉ tốn 1 lệnh EVALSHA (scripts/saga-aggregate.lua),
+ * và cả batch của consumer được gửi trong 1 pipeline.
+ */
+@Slf4j
+@Component("sagaStateStore")
+@ConditionalOnProperty(name = "saga.state.mode", havingValue = "redis", matchIfMissing = true)
+@RequiredArgsConstructor
+public class RedisSagaStateStore implements SagaStateStore {
+
+    private static final String SAGA_PREFIX = "saga:order:";
+    private static final Duration SAGA_TTL = Duration.ofMinutes(10);
+
+    // Mã trạng thái trả về từ saga-aggregate.lua
+    private static final long STATE_MISSING = 0;
+    private static final long IN_PROGRESS = 1;
+    private static final long COMPLETED = 2;
+    private static final long FAILED_NOW = 3;
+    private static final long ALREADY_FAILED = 4;
+
+    private static final byte[] ARG_SUCCESS = "1".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ARG_FAILURE = "0".getBytes(StandardCharsets.UTF_8);
+
+    private final RedisTemplate<String, Object> redisTemplate;
+    private final ObjectMapper objectMapper;
+
+    private final RedisScript<List> aggregateScript =
+            RedisScript.of(new ClassPathResource("scripts/saga-aggregate.lua"), List.class);
+
+    @PostConstruct
+    public void loadScript() {
+        try {
+            loadScriptIntoRedis();
+        } catch (Exception e) {
+            // Redis chưa lên cũng không sao, lần gọi đầu tiên sẽ load lại khi gặp NOSCRIPT
+            log.warn("SAGA: Không load được saga-aggregate.lua lúc khởi động: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public boolean start(String orderNumber, List<OrderLineItemRequest> items) {
+        String sagaKey = SAGA_PREFIX + orderNumber;
+        // HSETNX: đơn bị gửi lại khi SAGA đang chạy thì không reset bộ đếm.
+        // Các field còn lại ghi sau cũng an toàn vì check request của đơn chưa được commit vào outbox.
+        if (!Boolean.TRUE.equals(redisTemplate.opsForHash().putIfAbsent(sagaKey, "totalItems", items.size()))) {
+            return false;
+        }
+        Map<String, Object> sagaState = Map.of(
+                "receivedItems", 0,
+                "failed", false,
+                "request", new OrderRequest(items) // Tái tạo lại object request để lưu
+        );
+        redisTemplate.opsForHash().putAll(sagaKey, sagaState);
+        redisTemplate.expire(sagaKey, SAGA_TTL);
+        return true;
+    }
+
+    @Override
+    public void discard(String orderNumber) {
+        redisTemplate.delete(SAGA_PREFIX + orderNumber);
+    }
+
+    @Override
+    public List<SagaOutcome> apply(List<ConsumerRecord<String, Object>> records) {
+        List<InventoryCheckResult> results = new ArrayList<>(records.size());
+        for (ConsumerRecord<String, Object> record : records) {
+            try {
+                results.add(objectMapper.convertValue(record.value(), InventoryCheckResult.class));
+            } catch (Exception e) {
+                log.error("SAGA ERROR: Key: {}", record.key(), e);
+            }
+        }
+        if (results.isEmpty()) {
+            return List.of();
+        }
+
+        List<Object> replies = evalBatch(results);
+
+        List<SagaOutcome> outcomes = new ArrayList<>();
+        for (int i = 0; i < results.size(); i++) {
+            InventoryCheckResult result = results.get(i);
+            Object reply = replies.get(i);
+            try {
+                SagaOutcome outcome = toOutcome(result, reply);
+                if (outcome != null) {
+                    outcomes.add(outcome);
+                }
+            } catch (Exception e) {
+                log.error("SAGA ERROR: Key: {}", result.getOrderNumber(), e);
+            }
+        }
+        return outcomes;
+    }
+
+    private SagaOutcome toOutcome(InventoryCheckResult result, Object reply) {
+        String orderNumber = result.getOrderNumber();
+        if (reply instanceof Throwable t) {
+            throw new IllegalStateException("Redis script failed for order " + orderNumber, t);
+        }
+
+        List<?> values = (List<?>) reply;
+        long status = ((Number) values.get(0)).longValue();
+
+        if (status == STATE_MISSING) {
+            // State luôn được tạo trước khi check request được commit -> chỉ còn trường hợp hết hạn (TTL)
+            log.warn("SAGA: State missing for order {} (expired?). Ignoring.", orderNumber);
+            return null;
+        }
+        if (status == ALREADY_FAILED) {
+            log.info("SAGA: Order {} already marked failed. Ignoring.", orderNumber);
+            return null;
+        }
+        if (status == FAILED_NOW) {
+            log.warn("SAGA: Inventory check FAILED for Order {}, SKU {}. Reason: {}",
+                    orderNumber, result.getItem().getSkuCode(), result.getReason());
+            return SagaOutcome.failed(orderNumber, result.getReason());
+        }
+        if (status == IN_PROGRESS) {
+            log.debug("SAGA: Order {} progress: {}/{}", orderNumber, values.get(1), values.get(2));
+            return null;
+        }
+        if (status == COMPLETED) {
+            Object requestObj = redisTemplate.getHashValueSerializer().deserialize((byte[]) values.get(1));
+            OrderRequest originalRequest = objectMapper.convertValue(requestObj, OrderRequest.class);
+            log.info("SAGA COMPLETE: Order {} passed all inventory checks.", orderNumber);
+            return SagaOutcome.validated(orderNumber, originalRequest.getItems());
+        }
+        throw new IllegalStateException("Unknown saga script status " + status);
+    }
+
+    /**
+     * Gửi 1 EVALSHA cho mỗi kết quả trong cùng 1 pipeline.
+     * Nếu Redis báo NOSCRIPT (restart/failover làm mất script cache) thì load lại script
+     * và chỉ chạy lại đúng những lệnh bị NOSCRIPT, tránh cộng đếm 2 lần.
+     */
+    private List<Object> evalBatch(List<InventoryCheckResult> results) {
+        List<Object> replies;
+        try {
+            replies = new ArrayList<>(pipelineEval(results));
+        } catch (RedisPipelineException e) {
+            replies = new ArrayList<>(e.getPipelineResult());
+        }
+
+        List<Integer> retryIndexes = new ArrayList<>();
+        for (int i = 0; i < replies.size(); i++) {
+            if (isNoScript(replies.get(i))) {
+                retryIndexes.add(i);
+            }
+        }
+        if (retryIndexes.isEmpty()) {
+            return replies;
+        }
+
+        log.warn("SAGA: saga-aggregate.lua not cached on Redis, reloading and retrying {} results", retryIndexes.size());
+        loadScriptIntoRedis();
+        List<InventoryCheckResult> retry = retryIndexes.stream().map(results::get).toList();
+        List<Object> retried;
+        try {
+            retried = pipelineEval(retry);
+        } catch (RedisPipelineException e) {
+            retried = e.getPipelineResult();
+        }
+        for (int j = 0; j < retryIndexes.size(); j++) {
+            replies.set(retryIndexes.get(j), retried.get(j));
+        }
+        return replies;
+    }
+
+    private List<Object> pipelineEval(List<InventoryCheckResult> results) {
+        String sha = aggregateScript.getSha1();
+        // resultSerializer = null: giữ nguyên byte[]/Long, tự deserialize field "request" ở trên
+        return redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (InventoryCheckResult result : results) {
+                byte[] key = (SAGA_PREFIX + result.getOrderNumber()).getBytes(StandardCharsets.UTF_8);
+                connection.scriptingCommands().evalSha(sha, ReturnType.MULTI, 1,
+                        key, result.isSuccess() ? ARG_SUCCESS : ARG_FAILURE);
+            }
+            return null;
+        }, null);
+    }
+
+    private void loadScriptIntoRedis() {
+        byte[] script = aggregateScript.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        redisTemplate.execute((RedisCallback<String>) connection -> connection.scriptingCommands().scriptLoad(script));
+    }
+
+    private boolean isNoScript(Object reply) {
+        if (!(reply instanceof Throwable t)) {
+            return false;
+        }
+        for (Throwable cause = t; cause != null; cause = cause.getCause()) {
+            if (cause.getMessage() != null && cause.getMessage().contains("NOSCRIPT")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,27 @@
+package com.myexampleproject.orderservice.service;
+
+import com.myexampleproject.common.dto.OrderLineItemRequest;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.util.List;
+
+/**
+ * Kết quả cuối cùng của SAGA kiểm kho cho 1 đơn hàng.
+ */
+@Data
+@AllArgsConstructor
+public class SagaOutcome {
+    private String orderNumber;
+    private boolean validated;
+    private List<OrderLineItemRequest> items; // Chỉ có khi validated = true
+    private String reason;                    // Chỉ có khi validated = false
+
+    public static SagaOutcome validated(String orderNumber, List<OrderLineItemRequest> items) {
+        return new SagaOutcome(orderNumber, true, items, null);
+    }
+
+    public static SagaOutcome failed(String orderNumber, String reason) {
+        return new SagaOutcome(orderNumber, false, null, reason);
+    }
+}
@@ -0,0 +1,58 @@
+package com.myexampleproject.orderservice.service;
+
+import com.myexampleproject.common.dto.OrderLineItemRequest;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Nơi lưu state của SAGA kiểm kho (mỗi đơn hàng = 1 bản ghi đếm số kết quả đã nhận).
+ */
+public interface SagaStateStore {
+
+    /**
+     * Khởi tạo state cho đơn hàng, TRƯỚC khi các InventoryCheckRequest của đơn được commit vào outbox.
+     * Đơn đã có state (VD: OrderPlacedEvent bị gửi lại khi SAGA đang chạy) thì giữ nguyên.
+     *
+     * @return true nếu state vừa được tạo bởi lần gọi này
+     */
+    boolean start(String orderNumber, List<OrderLineItemRequest> items);
+
+    /**
+     * Xóa state vừa tạo bởi start() khi đơn hàng không được lưu (transaction rollback).
+     */
+    default void discard(String orderNumber) {
+    }
+
+    /**
+     * Áp dụng cả 1 batch record từ inventory-check-result-topic.
+     * Chỉ trả về các đơn vừa có kết quả cuối cùng (VALIDATED hoặc FAILED).
+     */
+    List<SagaOutcome> apply(List<ConsumerRecord<String, Object>> records);
+
+    /**
+     * Các topic mà SAGA listener (order-saga-group) cần subscribe.
+     */
+    default String[] sourceTopics() {
+        return new String[]{"inventory-check-result-topic"};
+    }
+
+    /**
+     * false khi SAGA được xử lý ở nơi khác (Kafka Streams) -> SAGA listener không tự khởi động.
+     */
+    default boolean listenerEnabled() {
+        return true;
+    }
+
+    // Callback rebalance của order-saga-group (chỉ store giữ state cục bộ mới cần)
+    default void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+    }
+
+    default void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+    }
+
+    default void onPartitionsLost(Collection<TopicPartition> partitions) {
+    }
+}
@@ -0,0 +1,47 @@
+package com.myexampleproject.orderservice.service;
+
+import com.myexampleproject.common.dto.OrderLineItemRequest;
+import jakarta.annotation.PostConstruct;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * saga.state.mode=streams: SAGA chạy hoàn toàn trong OrderSagaTopology (Kafka Streams),
+ * nên không cần khởi tạo state và SAGA listener không được bật.
+ */
+@Component("sagaStateStore")
+@ConditionalOnProperty(name = "saga.state.mode", havingValue = "streams")
+public class StreamsSagaStateStore implements SagaStateStore {
+
+    // order: topology sẽ timeout các đơn vì không có kết quả từng dòng
+    @Value("${inventory.reservation.mode:per-line}")
+    private String reservationMode;
+
+    @PostConstruct
+    public void validateMode() {
+        if ("order".equals(reservationMode)) {
+            throw new IllegalStateException(
+                    "saga.state.mode=streams không dùng được với inventory.reservation.mode=order");
+        }
+    }
+
+    @Override
+    public boolean start(String orderNumber, List<OrderLineItemRequest> items) {
+        // State được dựng từ chính OrderPlacedEvent trong topology
+        return false;
+    }
+
+    @Override
+    public List<SagaOutcome> apply(List<ConsumerRecord<String, Object>> records) {
+        return List.of();
+    }
+
+    @Override
+    public boolean listenerEnabled() {
+        return false;
+    }
+}
@@ -0,0 +1,42 @@
+-- Gộp toàn bộ bước xử lý 1 InventoryCheckResult vào 1 lần gọi Redis (atomic).
+-- KEYS[1] = saga:order:{orderNumber}
+-- ARGV[1] = '1' nếu item kiểm kho thành công, '0' nếu thất bại
+--
+-- Kết quả trả về (phần tử đầu là mã trạng thái):
+--   {0}                      -> chưa có state (hết hạn hoặc chưa được tạo)
+--   {1, received, total}     -> đang chờ thêm kết quả
+--   {2, request}             -> đủ kết quả, tất cả thành công (state đã bị xóa)
+--   {3}                      -> item này thất bại, đơn vừa bị đánh dấu failed
+--   {4}                      -> đơn đã failed trước đó, bỏ qua
+
+local total = redis.call('HGET', KEYS[1], 'totalItems')
+if not total then
+    return {0}
+end
+total = tonumber(total)
+
+local received = redis.call('HINCRBY', KEYS[1], 'receivedItems', 1)
+
+if redis.call('HGET', KEYS[1], 'failed') == 'true' then
+    if received >= total then
+        redis.call('DEL', KEYS[1])
+    end
+    return {4}
+end
+
+if ARGV[1] == '0' then
+    if received >= total then
+        redis.call('DEL', KEYS[1])
+    else
+        redis.call('HSET', KEYS[1], 'failed', 'true')
+    end
+    return {3}
+end
+
+if received == total then
+    local request = redis.call('HGET', KEYS[1], 'request')
+    redis.call('DEL', KEYS[1])
+    return {2, request}
+end
+
+return {1, received, total}
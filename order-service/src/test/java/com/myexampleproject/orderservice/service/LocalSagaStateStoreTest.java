@@ -0,0 +1,103 @@
+package com.myexampleproject.orderservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.myexampleproject.common.dto.OrderLineItemRequest;
+import com.myexampleproject.common.event.InventoryCheckResult;
+import com.myexampleproject.common.event.OrderPlacedEvent;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.ConsumerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class LocalSagaStateStoreTest {
+
+    private static final String RESULT_TOPIC = "inventory-check-result-topic";
+    private static final String PLACED_TOPIC = "order-placed-topic";
+    private static final int PARTITION = 3;
+
+    private final OrderLineItemRequest lineA = new OrderLineItemRequest("SKU-A", 1);
+    private final OrderLineItemRequest lineB = new OrderLineItemRequest("SKU-B", 2);
+
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<String, Object> kafkaTemplate = mock(KafkaTemplate.class);
+    private LocalSagaStateStore store;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        store = new LocalSagaStateStore(kafkaTemplate, mock(ConsumerFactory.class), new ObjectMapper());
+        ReflectionTestUtils.setField(store, "reservationMode", "per-line");
+    }
+
+    @Test
+    void validatesOrderOnceEveryLinePassed() {
+        List<SagaOutcome> outcomes = store.apply(List.of(
+                placed(0, "O-1", lineA, lineB),
+                result(10, "O-1", lineA, true),
+                result(11, "O-1", lineB, true)));
+
+        assertThat(outcomes).containsExactly(SagaOutcome.validated("O-1", List.of(lineA, lineB)));
+        // Xong thì ghi tombstone vào changelog
+        verify(kafkaTemplate).send(eq(LocalSagaStateStore.CHANGELOG_TOPIC), eq(PARTITION), eq("O-1"), isNull());
+    }
+
+    @Test
+    void waitsForPlacedEventWhenResultsArriveFirst() {
+        assertThat(store.apply(List.of(result(10, "O-2", lineA, true)))).isEmpty();
+
+        assertThat(store.apply(List.of(placed(0, "O-2", lineA))))
+                .containsExactly(SagaOutcome.validated("O-2", List.of(lineA)));
+    }
+
+    @Test
+    void redeliveredResultIsNotCountedTwice() {
+        store.apply(List.of(placed(0, "O-3", lineA, lineA)));
+
+        // Cùng 1 SKU ở 2 dòng: chỉ offset mới phân biệt được kết quả gửi lại với dòng thứ 2
+        assertThat(store.apply(List.of(result(10, "O-3", lineA, true)))).isEmpty();
+        assertThat(store.apply(List.of(result(10, "O-3", lineA, true)))).isEmpty();
+
+        assertThat(store.apply(List.of(result(11, "O-3", lineA, true))))
+                .containsExactly(SagaOutcome.validated("O-3", List.of(lineA, lineA)));
+    }
+
+    @Test
+    void firstFailureFailsTheOrderAndLaterResultsAreIgnored() {
+        store.apply(List.of(placed(0, "O-4", lineA, lineB)));
+
+        List<SagaOutcome> outcomes = store.apply(List.of(
+                result(10, "O-4", lineA, false),
+                result(11, "O-4", lineB, true)));
+
+        assertThat(outcomes).containsExactly(SagaOutcome.failed("O-4", "Out of stock"));
+    }
+
+    @Test
+    void rejectsWholeOrderReservationMode() {
+        ReflectionTestUtils.setField(store, "reservationMode", "order");
+
+        assertThatThrownBy(store::validateMode).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static ConsumerRecord<String, Object> placed(long offset, String orderNumber, OrderLineItemRequest... items) {
+        return new ConsumerRecord<>(PLACED_TOPIC, PARTITION, offset, orderNumber,
+                new OrderPlacedEvent(orderNumber, "user-1", List.of(items)));
+    }
+
+    private static ConsumerRecord<String, Object> result(long offset, String orderNumber, OrderLineItemRequest item,
+                                                         boolean success) {
+        return new ConsumerRecord<>(RESULT_TOPIC, PARTITION, offset, orderNumber,
+                new InventoryCheckResult(orderNumber, item, success, success ? null : "Out of stock"));
+    }
+}
@@ -0,0 +1,151 @@
+package com.myexampleproject.orderservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.myexampleproject.common.event.OrderStatusEvent;
+import com.myexampleproject.orderservice.model.OutboxEvent;
+import com.myexampleproject.orderservice.repository.OutboxEventRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+class OrderOutboxRelayTest {
+
+    private static final int CHUNK_SIZE = 100;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final OutboxEventRepository repository = mock(OutboxEventRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    @SuppressWarnings("unchecked")
+    private final Producer<String, Object> producer = mock(Producer.class);
+    private OrderOutboxRelay relay;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenAnswer(invocation -> new SimpleTransactionStatus());
+
+        // Relay tạo KafkaTemplate riêng từ bản sao (linger.ms) của ProducerFactory
+        ProducerFactory<String, Object> producerFactory = mock(ProducerFactory.class);
+        ProducerFactory<String, Object> lingerProducerFactory = mock(ProducerFactory.class);
+        when(producerFactory.copyWithConfigurationOverride(anyMap())).thenReturn(lingerProducerFactory);
+        when(lingerProducerFactory.createProducer()).thenReturn(producer);
+        ackSendsFailing();
+
+        relay = new OrderOutboxRelay(repository, objectMapper, meterRegistry, transactionManager, producerFactory,
+                CHUNK_SIZE, 20, Duration.ofDays(1), Duration.ofMinutes(2));
+    }
+
+    @Test
+    void claimsSendsAndMarksTheChunkInIdOrder() throws Exception {
+        when(repository.lockClaimable(any(), any(), any())).thenReturn(List.of(event(1L, "O-1"), event(2L, "O-2")));
+
+        relay.relay();
+
+        ArgumentCaptor<ProducerRecord<String, Object>> sent = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(producer, times(2)).send(sent.capture(), any(Callback.class));
+        assertThat(sent.getAllValues()).extracting(ProducerRecord::key).containsExactly("O-1", "O-2");
+        assertThat(sent.getAllValues().get(0).value()).isEqualTo(new OrderStatusEvent("O-1", "PENDING"));
+
+        var inOrder = inOrder(repository, producer);
+        inOrder.verify(repository).markClaimed(eq(List.of(1L, 2L)), any(), any());
+        inOrder.verify(producer, times(2)).send(any(), any(Callback.class));
+        inOrder.verify(repository).markSent(eq(List.of(1L, 2L)), any());
+    }
+
+    @Test
+    void claimsOnlyRowsWithoutALiveClaimOfAnotherRelay() throws Exception {
+        when(repository.lockClaimable(any(), any(), any())).thenReturn(List.of(event(1L, "O-1")));
+
+        relay.relay();
+
+        // Dòng của relay khác được bỏ qua trong query cho đến khi claim quá hạn (claim-timeout = 2m)
+        ArgumentCaptor<String> relayId = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<LocalDateTime> staleBefore = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(repository).lockClaimable(relayId.capture(), staleBefore.capture(), any());
+        assertThat(staleBefore.getValue()).isBetween(
+                LocalDateTime.now().minusMinutes(3), LocalDateTime.now().minusMinutes(1));
+        verify(repository).markClaimed(eq(List.of(1L)), eq(relayId.getValue()), any());
+    }
+
+    @Test
+    void marksUnreadablePayloadFailedInsteadOfSent() throws Exception {
+        OutboxEvent broken = event(1L, "O-1");
+        broken.setPayloadType("com.example.Missing");
+        when(repository.lockClaimable(any(), any(), any())).thenReturn(List.of(broken, event(2L, "O-2")));
+
+        relay.relay();
+
+        verify(producer, times(1)).send(any(), any(Callback.class));
+        verify(repository).markSent(eq(List.of(2L)), any());
+        verify(repository).markFailed(eq(List.of(1L)), any());
+        assertThat(meterRegistry.get("order_outbox_failed_total").counter().count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void marksOnlyAckedMessagesSent() throws Exception {
+        when(repository.lockClaimable(any(), any(), any())).thenReturn(List.of(event(1L, "O-1"), event(2L, "O-2")));
+        ackSendsFailing("O-1");
+
+        relay.relay();
+
+        verify(repository).markSent(eq(List.of(2L)), any());
+        verify(repository, never()).markFailed(anyCollection(), any());
+    }
+
+    @Test
+    void leavesChunkUnsentWhenKafkaFails() throws Exception {
+        when(repository.lockClaimable(any(), any(), any())).thenReturn(List.of(event(1L, "O-1")));
+        ackSendsFailing("O-1");
+
+        relay.relay();
+
+        verify(repository).markClaimed(eq(List.of(1L)), any(), any());
+        verify(repository, never()).markSent(anyCollection(), any());
+    }
+
+    // Producer giả: gọi callback ngay, lỗi với các key trong failingKeys
+    private void ackSendsFailing(String... failingKeys) {
+        Set<String> failing = Set.of(failingKeys);
+        doAnswer(invocation -> {
+            ProducerRecord<String, Object> record = invocation.getArgument(0);
+            Callback callback = invocation.getArgument(1);
+            Exception error = failing.contains(record.key()) ? new RuntimeException("broker down") : null;
+            RecordMetadata metadata = new RecordMetadata(new TopicPartition(record.topic(), 0), 0, 0, 0L, 0, 0);
+            callback.onCompletion(error == null ? metadata : null, error);
+            return error == null ? CompletableFuture.completedFuture(metadata) : CompletableFuture.failedFuture(error);
+        }).when(producer).send(any(), any(Callback.class));
+    }
+
+    private OutboxEvent event(Long id, String orderNumber) throws Exception {
+        OutboxEvent event = new OutboxEvent();
+        event.setId(id);
+        event.setTopic("order-status-topic");
+        event.setMessageKey(orderNumber);
+        event.setPayloadType(OrderStatusEvent.class.getName());
+        event.setPayload(objectMapper.writeValueAsString(new OrderStatusEvent(orderNumber, "PENDING")));
+        return event;
+    }
+}
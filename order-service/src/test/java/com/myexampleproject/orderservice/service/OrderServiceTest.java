@@ -0,0 +1,186 @@
+package com.myexampleproject.orderservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.myexampleproject.common.cache.ProductCatalogCache;
+import com.myexampleproject.common.dto.OrderLineItemRequest;
+import com.myexampleproject.common.event.*;
+import com.myexampleproject.orderservice.model.Order;
+import com.myexampleproject.orderservice.repository.OrderRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+/**
+ * Listener order-updater-group: lưu đơn mới theo batch và chuyển trạng thái hàng loạt.
+ */
+class OrderServiceTest {
+
+    private final SagaStateStore sagaStateStore = mock(SagaStateStore.class);
+    private final ProductCatalogCache productCatalogCache = mock(ProductCatalogCache.class);
+    private final OrderBatchWriter orderBatchWriter = mock(OrderBatchWriter.class);
+    private final OrderStatusTransitions orderStatusTransitions = mock(OrderStatusTransitions.class);
+    private final OrderOutbox orderOutbox = mock(OrderOutbox.class);
+    private OrderService orderService;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        orderService = new OrderService(new SimpleMeterRegistry(), mock(OrderRepository.class), mock(KafkaTemplate.class),
+                new ObjectMapper(), sagaStateStore, productCatalogCache, orderBatchWriter,
+                orderStatusTransitions, orderOutbox, mock(OrderDetailsCache.class));
+        ReflectionTestUtils.setField(orderService, "reservationMode", "per-line");
+        orderService.initMetrics();
+
+        when(productCatalogCache.getAll(any())).thenReturn(Map.of(
+                "SKU-A", product("SKU-A", "10.00"),
+                "SKU-B", product("SKU-B", "25.50")));
+        when(sagaStateStore.start(any(), any())).thenReturn(true);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void savesAllOrdersOfAPollInOneBatch() {
+        saveSucceedsUnless(Set.of());
+
+        orderService.handleOrderEvents(List.of(
+                placed("O-1", new OrderLineItemRequest("SKU-A", 2)),
+                placed("O-2", new OrderLineItemRequest("SKU-B", 1))));
+
+        // 1 lần tra giá cho cả batch
+        verify(productCatalogCache).getAll(Set.of("SKU-A", "SKU-B"));
+
+        ArgumentCaptor<List<Order>> saved = ArgumentCaptor.forClass(List.class);
+        InOrder inOrder = inOrder(sagaStateStore, orderBatchWriter);
+        inOrder.verify(sagaStateStore).start(eq("O-1"), any());
+        inOrder.verify(sagaStateStore).start(eq("O-2"), any());
+        inOrder.verify(orderBatchWriter).saveAll(saved.capture(), any());
+        assertThat(saved.getValue()).extracting(Order::getOrderNumber).containsExactly("O-1", "O-2");
+        assertThat(saved.getValue().get(0).getTotalPrice()).isEqualByComparingTo("20.00");
+
+        // Message SAGA đi qua outbox trong transaction lưu đơn
+        verify(orderOutbox).add("inventory-check-request-topic", "SKU-A",
+                new InventoryCheckRequest("O-1", new OrderLineItemRequest("SKU-A", 2)));
+        verify(orderOutbox).add("order-status-topic", "O-2", new OrderStatusEvent("O-2", "PENDING"));
+        verify(sagaStateStore, never()).discard(any());
+    }
+
+    @Test
+    void skipsOrderWithoutCatalogPrice() {
+        saveSucceedsUnless(Set.of());
+
+        orderService.handleOrderEvents(List.of(
+                placed("O-1", new OrderLineItemRequest("SKU-A", 1)),
+                placed("O-2", new OrderLineItemRequest("SKU-MISSING", 1))));
+
+        verify(sagaStateStore).start(eq("O-1"), any());
+        verify(sagaStateStore, never()).start(eq("O-2"), any());
+        verify(orderBatchWriter).saveAll(argThatHasOrders("O-1"), any());
+    }
+
+    @Test
+    void fallsBackToOneTransactionPerOrderAndDiscardsSagaOfUnsavedOrder() {
+        saveSucceedsUnless(Set.of("O-2"));
+
+        orderService.handleOrderEvents(List.of(
+                placed("O-1", new OrderLineItemRequest("SKU-A", 1)),
+                placed("O-2", new OrderLineItemRequest("SKU-B", 1))));
+
+        verify(orderBatchWriter).saveAll(argThatHasOrders("O-1", "O-2"), any());
+        verify(orderBatchWriter).saveAll(argThatHasOrders("O-1"), any());
+        verify(orderBatchWriter).saveAll(argThatHasOrders("O-2"), any());
+        verify(sagaStateStore).discard("O-2");
+        verify(sagaStateStore, never()).discard("O-1");
+    }
+
+    @Test
+    void sagaStartFailureDiscardsStartedSagasAndRethrows() {
+        when(sagaStateStore.start(eq("O-2"), any())).thenThrow(new IllegalStateException("redis down"));
+
+        assertThatThrownBy(() -> orderService.handleOrderEvents(List.of(
+                        placed("O-1", new OrderLineItemRequest("SKU-A", 1)),
+                        placed("O-2", new OrderLineItemRequest("SKU-B", 1)))))
+                .isInstanceOf(IllegalStateException.class);
+
+        verify(sagaStateStore).discard("O-1");
+        verifyNoInteractions(orderBatchWriter);
+    }
+
+    @Test
+    void groupsStatusEventsOfAPollByTargetStatus() {
+        orderService.handleOrderEvents(List.of(
+                record("order-failed-topic", "O-1", new OrderFailedEvent("O-1", "Out of stock")),
+                record("payment-processed-topic", "O-2", new PaymentProcessedEvent("O-2", "PAY-2")),
+                record("payment-processed-topic", "O-3", new PaymentProcessedEvent("O-3", "PAY-3")),
+                record("payment-failed-topic", "O-4", new PaymentFailedEvent("O-4", "Card declined"))));
+
+        verify(orderStatusTransitions).apply(eq(Set.of("O-1")), eq("FAILED"), any(), any());
+        verify(orderStatusTransitions).apply(eq(Set.of("O-2", "O-3")), eq("COMPLETED"), any(), any());
+        verify(orderStatusTransitions).apply(eq(Set.of("O-4")), eq("PAYMENT_FAILED"), any(), any());
+        verifyNoMoreInteractions(orderStatusTransitions);
+    }
+
+    @Test
+    void appliesEventsOfTheSameOrderInArrivalOrder() {
+        orderService.handleOrderEvents(List.of(
+                record("payment-failed-topic", "O-1", new PaymentFailedEvent("O-1", "Card declined")),
+                record("payment-processed-topic", "O-2", new PaymentProcessedEvent("O-2", "PAY-2")),
+                record("payment-processed-topic", "O-1", new PaymentProcessedEvent("O-1", "PAY-1"))));
+
+        // Vòng 1: PAYMENT_FAILED của O-1 (cùng vòng với COMPLETED của O-2), vòng 2: COMPLETED của O-1
+        InOrder inOrder = inOrder(orderStatusTransitions);
+        inOrder.verify(orderStatusTransitions).apply(eq(Set.of("O-2")), eq("COMPLETED"), any(), any());
+        inOrder.verify(orderStatusTransitions).apply(eq(Set.of("O-1")), eq("PAYMENT_FAILED"), any(), any());
+        inOrder.verify(orderStatusTransitions).apply(eq(Set.of("O-1")), eq("COMPLETED"), any(), any());
+        verifyNoMoreInteractions(orderStatusTransitions);
+    }
+
+    // orderBatchWriter giả: chạy callback outbox rồi trả lại đơn, lỗi nếu batch có đơn trong failing
+    // (batch nhiều đơn chứa đơn lỗi cũng lỗi cả batch)
+    @SuppressWarnings("unchecked")
+    private void saveSucceedsUnless(Set<String> failing) {
+        when(orderBatchWriter.saveAll(anyList(), any())).thenAnswer(invocation -> {
+            List<Order> orders = invocation.getArgument(0);
+            if (orders.stream().anyMatch(order -> failing.contains(order.getOrderNumber()))) {
+                throw new DataIntegrityViolationException("Duplicate orderNumber");
+            }
+            ((Consumer<List<Order>>) invocation.getArgument(1)).accept(orders);
+            return orders;
+        });
+    }
+
+    private static List<Order> argThatHasOrders(String... orderNumbers) {
+        return argThat(orders -> orders != null
+                && orders.stream().map(Order::getOrderNumber).toList().equals(List.of(orderNumbers)));
+    }
+
+    private static ConsumerRecord<String, Object> placed(String orderNumber, OrderLineItemRequest... items) {
+        return record("order-placed-topic", orderNumber, new OrderPlacedEvent(orderNumber, "user-1", List.of(items)));
+    }
+
+    private static ConsumerRecord<String, Object> record(String topic, String key, Object value) {
+        return new ConsumerRecord<>(topic, 0, 0L, key, value);
+    }
+
+    private static ProductCacheEvent product(String sku, String price) {
+        return ProductCacheEvent.builder().skuCode(sku).name(sku).price(new BigDecimal(price)).build();
+    }
+}
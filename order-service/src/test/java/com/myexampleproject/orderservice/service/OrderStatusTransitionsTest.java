@@ -0,0 +1,57 @@
+package com.myexampleproject.orderservice.service;
+
+import com.myexampleproject.common.event.OrderStatusEvent;
+import com.myexampleproject.orderservice.repository.OrderRepository;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+class OrderStatusTransitionsTest {
+
+    private static final List<String> FROM = List.of("PENDING", "VALIDATED");
+
+    private final OrderRepository orderRepository = mock(OrderRepository.class);
+    private final OrderOutbox orderOutbox = mock(OrderOutbox.class);
+    private final OrderStatusTransitions transitions = new OrderStatusTransitions(orderRepository, orderOutbox);
+
+    @Test
+    void updatesOnlyOrdersInAnAllowedStatusWithOneStatement() {
+        when(orderRepository.lockOrderNumbersInStatus(List.of("O-1", "O-2", "O-3"), FROM))
+                .thenReturn(List.of("O-1", "O-3"));
+        List<List<String>> callback = new ArrayList<>();
+
+        List<String> changed = transitions.apply(List.of("O-1", "O-2", "O-3"), "COMPLETED", FROM, callback::add);
+
+        assertThat(changed).containsExactly("O-1", "O-3");
+        verify(orderRepository).updateStatus(List.of("O-1", "O-3"), "COMPLETED");
+        verify(orderOutbox).add("order-status-topic", "O-1", new OrderStatusEvent("O-1", "COMPLETED"));
+        verify(orderOutbox).add("order-status-topic", "O-3", new OrderStatusEvent("O-3", "COMPLETED"));
+        verifyNoMoreInteractions(orderOutbox);
+        assertThat(callback).containsExactly(List.of("O-1", "O-3"));
+    }
+
+    @Test
+    void skipsUpdateWhenNoOrderCanTransition() {
+        when(orderRepository.lockOrderNumbersInStatus(any(), any())).thenReturn(List.of());
+
+        List<String> changed = transitions.apply(List.of("O-1"), "FAILED", FROM,
+                none -> { throw new AssertionError("callback must not run"); });
+
+        assertThat(changed).isEmpty();
+        verify(orderRepository, never()).updateStatus(anyCollection(), any());
+        verifyNoInteractions(orderOutbox);
+    }
+
+    @Test
+    void emptyBatchDoesNotTouchTheDatabase() {
+        assertThat(transitions.apply(List.of(), "FAILED", FROM, none -> {})).isEmpty();
+
+        verifyNoInteractions(orderRepository, orderOutbox);
+    }
+}
@@ -0,0 +1,133 @@
+package com.myexampleproject.orderservice.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.myexampleproject.common.dto.OrderLineItemRequest;
+import com.myexampleproject.common.event.InventoryCheckResult;
+import com.myexampleproject.orderservice.config.RedisConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * RedisSagaStateStore + scripts/saga-aggregate.lua trên Redis thật (cùng image với docker-compose).
+ */
+@Testcontainers(disabledWithoutDocker = true)
+class RedisSagaStateStoreTest {
+
+    private static final String RESULT_TOPIC = "inventory-check-result-topic";
+
+    @Container
+    static final GenericContainer<?> REDIS = new GenericContainer<>(DockerImageName.parse("redis:7-alpine"))
+            .withExposedPorts(6379);
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static RedisTemplate<String, Object> redisTemplate;
+
+    private final OrderLineItemRequest lineA = new OrderLineItemRequest("SKU-A", 1);
+    private final OrderLineItemRequest lineB = new OrderLineItemRequest("SKU-B", 2);
+    private RedisSagaStateStore store;
+    private long offset;
+
+    @BeforeAll
+    static void connect() {
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(REDIS.getHost(), REDIS.getMappedPort(6379)));
+        connectionFactory.afterPropertiesSet();
+        redisTemplate = new RedisConfig().redisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void disconnect() {
+        connectionFactory.destroy();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+        store = new RedisSagaStateStore(redisTemplate, new ObjectMapper());
+        store.loadScript();
+    }
+
+    @Test
+    void validatesOrderWhenLastResultArrives() {
+        assertThat(store.start("O-1", lines(lineA, lineB))).isTrue();
+
+        assertThat(store.apply(List.of(result("O-1", lineA, true)))).isEmpty();
+        assertThat(store.apply(List.of(result("O-1", lineB, true))))
+                .containsExactly(SagaOutcome.validated("O-1", List.of(lineA, lineB)));
+        assertThat(redisTemplate.hasKey("saga:order:O-1")).isFalse();
+    }
+
+    @Test
+    void startKeepsTheCounterOfARunningSaga() {
+        store.start("O-2", lines(lineA, lineB));
+        store.apply(List.of(result("O-2", lineA, true)));
+
+        // OrderPlacedEvent gửi lại khi SAGA đang chạy
+        assertThat(store.start("O-2", lines(lineA, lineB))).isFalse();
+
+        assertThat(store.apply(List.of(result("O-2", lineB, true))))
+                .containsExactly(SagaOutcome.validated("O-2", List.of(lineA, lineB)));
+    }
+
+    @Test
+    void failsOnceAndCleansUpAfterTheLastResult() {
+        store.start("O-3", lines(lineA, lineB));
+
+        List<SagaOutcome> outcomes = store.apply(List.of(
+                result("O-3", lineA, false),
+                result("O-3", lineB, true)));
+
+        assertThat(outcomes).containsExactly(SagaOutcome.failed("O-3", "Out of stock"));
+        assertThat(redisTemplate.hasKey("saga:order:O-3")).isFalse();
+    }
+
+    @Test
+    void ignoresResultsWithoutState() {
+        assertThat(store.apply(List.of(result("O-4", lineA, true)))).isEmpty();
+
+        store.start("O-5", lines(lineA));
+        store.discard("O-5");
+        assertThat(store.apply(List.of(result("O-5", lineA, true)))).isEmpty();
+    }
+
+    @Test
+    void reloadsScriptAfterRedisLostItsScriptCache() {
+        store.start("O-6", lines(lineA));
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            connection.scriptingCommands().scriptFlush();
+            return null;
+        });
+
+        assertThat(store.apply(List.of(result("O-6", lineA, true))))
+                .containsExactly(SagaOutcome.validated("O-6", List.of(lineA)));
+    }
+
+    // Như OrderPlacedEvent sau convertValue: ArrayList (JSON serializer của Redis ghi kèm kiểu của list)
+    private static List<OrderLineItemRequest> lines(OrderLineItemRequest... items) {
+        return new ArrayList<>(List.of(items));
+    }
+
+    private ConsumerRecord<String, Object> result(String orderNumber, OrderLineItemRequest item, boolean success) {
+        return new ConsumerRecord<>(RESULT_TOPIC, 0, offset++, orderNumber,
+                new InventoryCheckResult(orderNumber, item, success, success ? null : "Out of stock"));
+    }
+}
@@ -1,11 +1,15 @@
 package com.myexampleproject.paymentservice.config;
 
+import com.myexampleproject.common.security.GatewayIdentityFilter;
+import com.myexampleproject.common.security.GatewayIdentityVerifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+import org.springframework.security.oauth2.server.resource.web.authentication.BearerTokenAuthenticationFilter;
 import org.springframework.security.web.SecurityFilterChain;
 
 @Configuration
@@ -13,7 +17,7 @@ import org.springframework.security.web.SecurityFilterChain;
 public class SecurityConfig {
 
     @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain filterChain(HttpSecurity http, GatewayIdentityVerifier gatewayIdentityVerifier) throws Exception {
         http
                 // 1. Tắt CSRF (vì chúng ta dùng API)
                 .csrf(csrf -> csrf.disable())
@@ -31,6 +35,10 @@ public class SecurityConfig {
                 .sessionManagement(session -> session
                         .sessionCreationPolicy(SessionCreationPolicy.STATELESS));
 
+        // 5. Trusted-gateway (xem GatewayIdentityFilter)
+        http.addFilterBefore(new GatewayIdentityFilter(gatewayIdentityVerifier, new JwtAuthenticationConverter()),
+                BearerTokenAuthenticationFilter.class);
+
         return http.build();
     }
 }
\ No newline at end of file
@@ -1,12 +1,13 @@
 package com.myexampleproject.productservice;
 
 import com.myexampleproject.common.exception.GlobalExceptionHandler;
+import com.myexampleproject.common.security.JwtDecoderConfig;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.cache.annotation.EnableCaching;
 import org.springframework.context.annotation.Import;
 @SpringBootApplication
-@Import({ GlobalExceptionHandler.class })
+@Import({ GlobalExceptionHandler.class, JwtDecoderConfig.class })
 @EnableCaching // <-- Kích hoạt tính năng cache
 public class ProductServiceApplication {
 
@@ -1,5 +1,7 @@
 package com.myexampleproject.productservice.config;
 
+import com.myexampleproject.common.security.GatewayIdentityFilter;
+import com.myexampleproject.common.security.GatewayIdentityVerifier;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -7,6 +9,8 @@ import org.springframework.security.config.Customizer;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+import org.springframework.security.oauth2.server.resource.web.authentication.BearerTokenAuthenticationFilter;
 import org.springframework.security.web.SecurityFilterChain;
 
 @Configuration
@@ -14,7 +18,7 @@ import org.springframework.security.web.SecurityFilterChain;
 public class SecurityConfig {
 
     @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain filterChain(HttpSecurity http, GatewayIdentityVerifier gatewayIdentityVerifier) throws Exception {
         http
                 .csrf(csrf -> csrf.disable())
 
@@ -33,6 +37,10 @@ public class SecurityConfig {
                 .sessionManagement(session -> session
                         .sessionCreationPolicy(SessionCreationPolicy.STATELESS));
 
+        // Request đã qua gateway (trusted-gateway bật) thì không verify RSA lại
+        http.addFilterBefore(new GatewayIdentityFilter(gatewayIdentityVerifier, new JwtAuthenticationConverter()),
+                BearerTokenAuthenticationFilter.class);
+
         return http.build();
     }
 }
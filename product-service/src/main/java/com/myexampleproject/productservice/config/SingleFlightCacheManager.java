@@ -0,0 +1,217 @@
+package com.myexampleproject.productservice.config;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bọc RedisCacheManager cho các @Cacheable(sync = true):
+ * - Single-flight: trong 1 instance, mỗi key chỉ có 1 loader chạy; các request hụt cùng lúc chờ kết quả của nó
+ *   (thay vì hàng trăm request cùng findAll() + lazy load variant/ảnh sau mỗi lần evict).
+ * - Stale-while-revalidate (các cache trong swrCaches): giữ bản gần nhất đọc được trong bộ nhớ (tối đa staleTtl);
+ *   khi Redis hụt vì hết TTL thì trả ngay bản cũ và nạp lại ở background.
+ *   Key bị evict do ghi (@CacheEvict) thì bỏ luôn bản cũ: request sau phải chờ nạp dữ liệu mới.
+ * Loader chạy trong transaction read-only để lazy load vẫn chạy được ở thread background.
+ */
+@Slf4j
+public class SingleFlightCacheManager implements CacheManager {
+
+    private final CacheManager delegate;
+    private final Set<String> swrCaches;
+    private final long staleMaxSize;
+    private final Duration staleTtl;
+    private final TransactionTemplate readOnlyTransaction;
+    // Nạp lại background, mỗi lần 1 virtual thread
+    private final ExecutorService refreshExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final Map<String, Cache> caches = new ConcurrentHashMap<>();
+
+    public SingleFlightCacheManager(CacheManager delegate, Set<String> swrCaches, long staleMaxSize,
+                                    Duration staleTtl, TransactionTemplate readOnlyTransaction) {
+        this.delegate = delegate;
+        this.swrCaches = swrCaches;
+        this.staleMaxSize = staleMaxSize;
+        this.staleTtl = staleTtl;
+        this.readOnlyTransaction = readOnlyTransaction;
+    }
+
+    // Dừng nhận lần nạp lại mới; lần đang chạy được chờ tối đa 10s (đang giữ transaction DB) rồi mới ngắt
+    @PreDestroy
+    public void stopRefreshes() throws InterruptedException {
+        refreshExecutor.shutdown();
+        if (!refreshExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+            log.warn("CACHE: {} lần nạp lại chưa xong khi tắt, ngắt", refreshExecutor.shutdownNow().size());
+        }
+    }
+
+    @Override
+    public Cache getCache(String name) {
+        return caches.computeIfAbsent(name, n -> {
+            Cache cache = delegate.getCache(n);
+            return cache != null ? new SingleFlightCache(cache, swrCaches.contains(n)) : null;
+        });
+    }
+
+    @Override
+    public Collection<String> getCacheNames() {
+        return delegate.getCacheNames();
+    }
+
+    private class SingleFlightCache implements Cache {
+
+        private final Cache delegate;
+        // Bản gần nhất đọc/nạp được, chỉ dùng khi Redis hụt (null nếu cache này không bật SWR)
+        private final com.github.benmanes.caffeine.cache.Cache<Object, Object> lastKnown;
+        private final Map<Object, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+        // Tăng mỗi lần evict/clear: loader bắt đầu trước đó có thể đã đọc dữ liệu cũ, không được ghi lại vào cache
+        private final AtomicLong generation = new AtomicLong();
+
+        SingleFlightCache(Cache delegate, boolean staleWhileRevalidate) {
+            this.delegate = delegate;
+            this.lastKnown = staleWhileRevalidate
+                    ? Caffeine.newBuilder().maximumSize(staleMaxSize).expireAfterWrite(staleTtl).build()
+                    : null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T get(Object key, Callable<T> valueLoader) {
+            ValueWrapper cached = delegate.get(key);
+            if (cached != null) {
+                remember(key, cached.get());
+                return (T) cached.get();
+            }
+
+            Object stale = lastKnown != null ? lastKnown.getIfPresent(key) : null;
+            if (stale != null) {
+                load(key, valueLoader, true); // Không chờ: trả bản cũ ngay
+                return (T) stale;
+            }
+
+            CompletableFuture<Object> loading = load(key, valueLoader, false);
+            try {
+                return (T) loading.join();
+            } catch (CompletionException e) {
+                // Lỗi của loader đã được bọc trong ValueRetrievalException (CacheAspect tự gỡ ra)
+                throw e.getCause() instanceof RuntimeException runtime ? runtime : e;
+            }
+        }
+
+        /**
+         * Request đầu tiên của 1 key chạy loader (ngay trên thread của nó, hoặc background nếu đang trả bản cũ);
+         * các request sau nhận lại future đang chạy.
+         */
+        private CompletableFuture<Object> load(Object key, Callable<?> valueLoader, boolean background) {
+            CompletableFuture<Object> created = new CompletableFuture<>();
+            CompletableFuture<Object> running = inFlight.putIfAbsent(key, created);
+            if (running != null) {
+                return running;
+            }
+
+            long startedAt = generation.get();
+            Runnable task = () -> {
+                try {
+                    Object value = readOnlyTransaction.execute(status -> call(key, valueLoader));
+                    if (value != null && generation.get() == startedAt) {
+                        delegate.put(key, value);
+                        remember(key, value);
+                    }
+                    created.complete(value);
+                } catch (RuntimeException e) {
+                    if (lastKnown != null) {
+                        lastKnown.invalidate(key); // VD: sản phẩm đã bị xóa -> không trả bản cũ nữa
+                    }
+                    if (background) {
+                        log.warn("Nạp lại cache {}::{} thất bại: {}", getName(), key, e.getMessage());
+                    }
+                    created.completeExceptionally(e);
+                } finally {
+                    inFlight.remove(key, created);
+                }
+            };
+            if (background) {
+                refreshExecutor.execute(task);
+            } else {
+                task.run();
+            }
+            return created;
+        }
+
+        private Object call(Object key, Callable<?> valueLoader) {
+            try {
+                return valueLoader.call();
+            } catch (Exception e) {
+                throw new ValueRetrievalException(key, valueLoader, e);
+            }
+        }
+
+        private void remember(Object key, Object value) {
+            if (lastKnown != null && value != null) {
+                lastKnown.put(key, value);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return delegate.getName();
+        }
+
+        @Override
+        public Object getNativeCache() {
+            return delegate.getNativeCache();
+        }
+
+        @Override
+        public ValueWrapper get(Object key) {
+            return delegate.get(key);
+        }
+
+        @Override
+        public <T> T get(Object key, Class<T> type) {
+            return delegate.get(key, type);
+        }
+
+        @Override
+        public void put(Object key, Object value) {
+            delegate.put(key, value);
+            remember(key, value);
+        }
+
+        // Evict/clear là do dữ liệu vừa bị ghi: bỏ cả bản cũ trong lastKnown và loader đang chạy,
+        // nếu không gateway sẽ cache lại bản cũ này (stale-while-revalidate chỉ dành cho key hết TTL)
+        @Override
+        public void evict(Object key) {
+            generation.incrementAndGet();
+            delegate.evict(key);
+            inFlight.remove(key);
+            if (lastKnown != null) {
+                lastKnown.invalidate(key);
+            }
+        }
+
+        @Override
+        public void clear() {
+            generation.incrementAndGet();
+            delegate.clear();
+            inFlight.clear();
+            if (lastKnown != null) {
+                lastKnown.invalidateAll();
+            }
+        }
+    }
+}
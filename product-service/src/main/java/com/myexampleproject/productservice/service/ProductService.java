@@ -234,13 +234,14 @@ public class ProductService {
         }
     }
 
-    @Cacheable(cacheNames = "products_json_v5")
+    // sync = true: đi qua SingleFlightCacheManager (1 loader / key, trả bản cũ trong lúc nạp lại)
+    @Cacheable(cacheNames = "products_json_v5", sync = true)
     public List<ProductResponse> getAllProducts() {
         List<Product> products = productRepository.findAll();
         return products.stream().map(this::mapToProductResponse).collect(Collectors.toList());
     }
 
-    @Cacheable(cacheNames = "product_item_json_v5", key = "#id")
+    @Cacheable(cacheNames = "product_item_json_v5", key = "#id", sync = true)
     public ProductResponse getProductById(Long id){
         Product product = productRepository.findById(id)
                 .orElseThrow(() -> new RuntimeException("Product not found"));
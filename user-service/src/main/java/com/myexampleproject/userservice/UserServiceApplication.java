@@ -1,11 +1,12 @@
 package com.myexampleproject.userservice;
 
 import com.myexampleproject.common.exception.GlobalExceptionHandler;
+import com.myexampleproject.common.security.JwtDecoderConfig;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Import;
 @SpringBootApplication
-@Import({ GlobalExceptionHandler.class })
+@Import({ GlobalExceptionHandler.class, JwtDecoderConfig.class })
 public class UserServiceApplication {
 
 	public static void main(String[] args) {
@@ -1,5 +1,7 @@
 package com.myexampleproject.userservice.config;
 
+import com.myexampleproject.common.security.GatewayIdentityFilter;
+import com.myexampleproject.common.security.GatewayIdentityVerifier;
 import lombok.NoArgsConstructor;
 import lombok.RequiredArgsConstructor;
 import org.springframework.context.annotation.Bean;
@@ -11,6 +13,7 @@ import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.http.SessionCreationPolicy;
+import org.springframework.security.oauth2.server.resource.web.authentication.BearerTokenAuthenticationFilter;
 import org.springframework.security.web.SecurityFilterChain;
 
 @Configuration
@@ -22,7 +25,7 @@ public class SecurityConfig {
     private final JwtAuthConverter jwtAuthConverter;
 
     @Bean
-    public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
+    public SecurityFilterChain filterChain(HttpSecurity http, GatewayIdentityVerifier gatewayIdentityVerifier) throws Exception {
         http
                 .csrf(AbstractHttpConfigurer::disable)
 
@@ -52,6 +55,10 @@ public class SecurityConfig {
                         session.sessionCreationPolicy(SessionCreationPolicy.STATELESS)
                 );
 
+        // Trusted-gateway: roles lấy qua JwtAuthConverter như với JWT thường
+        http.addFilterBefore(new GatewayIdentityFilter(gatewayIdentityVerifier, jwtAuthConverter),
+                BearerTokenAuthenticationFilter.class);
+
         return http.build();
     }
 }